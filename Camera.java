@@ -34,6 +34,13 @@ public class Camera {
 
   private Mat4 perspective;
 
+  // Cached matrices, recomputed on first use after the camera changes
+  private final Mat4 view = new Mat4(1);
+  private final Mat4 inverseView = new Mat4(1);
+  private final Mat4 viewProjection = new Mat4(1);
+  private boolean viewDirty = true;
+  private boolean viewProjectionDirty = true;
+
   /**
    * Create a camera with given position, target and up vector.
    * @param position Position of the camera in the scene
@@ -60,14 +67,24 @@ public class Camera {
     calculateYawPitch(front);
     worldUp = new Vec3(up);
     updateCameraVectors();
+    invalidate();
+  }
+
+  /**
+   * Mark the cached matrices as out of date after the camera has moved or turned.
+   */
+  private void invalidate() {
+    viewDirty = true;
+    viewProjectionDirty = true;
   }
 
   /**
    * Get the position of the camera in the scene.
+   * The vector is not copied, so callers must not modify it.
    * @return The position of the camera in the scene
    */
   public Vec3 getPosition() {
-    return new Vec3(position);
+    return position;
   }
 
   /**
@@ -107,12 +124,41 @@ public class Camera {
   }
 
   /**
-   * Get the view matrix of the camera.
+   * Get the view matrix of the camera. It is only recomputed after the camera has changed.
+   * The matrix is cached, so callers must copy it before modifying it.
    * @return The view matrix of the camera
    */
   public Mat4 getViewMatrix() {
-    target = Vec3.add(position, front);
-    return Mat4Transform.lookAt(position, target, up);
+    if (viewDirty) {
+      Vec3.addInto(position, front, target);
+      Mat4Transform.lookAtInto(position, target, up, view);
+      Mat4.invertRigidInto(view, inverseView);
+      viewDirty = false;
+    }
+    return view;
+  }
+
+  /**
+   * Get the inverse of the view matrix, i.e. the camera's transform in world space.
+   * The matrix is cached, so callers must copy it before modifying it.
+   * @return The inverse view matrix of the camera
+   */
+  public Mat4 getInverseViewMatrix() {
+    getViewMatrix();
+    return inverseView;
+  }
+
+  /**
+   * Get the perspective matrix multiplied by the view matrix.
+   * The matrix is cached, so callers must copy it before modifying it.
+   * @return The view projection matrix of the camera
+   */
+  public Mat4 getViewProjectionMatrix() {
+    if (viewProjectionDirty) {
+      Mat4.mulInto(perspective, getViewMatrix(), viewProjection);
+      viewProjectionDirty = false;
+    }
+    return viewProjection;
   }
 
   /**
@@ -121,6 +167,7 @@ public class Camera {
    */
   public void setPerspectiveMatrix(Mat4 m) {
     perspective = m;
+    viewProjectionDirty = true;
   }
 
   /**
@@ -145,6 +192,7 @@ public class Camera {
       case FORWARD: position.add(Vec3.multiply(front, KEYBOARD_SPEED)); break;
       case BACK: position.add(Vec3.multiply(front, -KEYBOARD_SPEED)); break;
     }
+    if (movement != Movement.NO_MOVEMENT) invalidate();
   }
 
   /**
@@ -159,6 +207,7 @@ public class Camera {
     else if (pitch < -89) pitch = -89;
     updateFront();
     updateCameraVectors();
+    invalidate();
   }
 
   /**
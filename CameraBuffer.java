@@ -0,0 +1,71 @@
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import gmaths.Mat4;
+import gmaths.Vec3;
+
+import java.nio.FloatBuffer;
+
+/**
+ * CameraBuffer class to share the camera matrices with every shader through one uniform buffer.
+ * The view, projection and view projection matrices and the camera position are packed once
+ * per frame into the std140 Camera block, which Shader binds to BINDING when a
+ * program is linked.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class CameraBuffer {
+    public static final String BLOCK_NAME = "Camera";
+    public static final int BINDING = 1;
+
+    private static final int VIEW_OFFSET = 0;
+    private static final int PROJECTION_OFFSET = 16;
+    private static final int VIEW_PROJECTION_OFFSET = 32;
+    private static final int VIEW_POS_OFFSET = 48;
+    private static final int SIZE_FLOATS = 52;  // blocks are padded to 16 bytes
+
+    private final int[] bufferId = new int[1];
+    private final FloatBuffer data = Buffers.newDirectFloatBuffer(SIZE_FLOATS);
+
+    /**
+     * Create the uniform buffer and attach it to its binding point.
+     * @param gl The GL3 object
+     */
+    public CameraBuffer(GL3 gl) {
+        gl.glGenBuffers(1, bufferId, 0);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+        gl.glBufferData(GL3.GL_UNIFORM_BUFFER, (long) SIZE_FLOATS * Float.BYTES, null, GL.GL_DYNAMIC_DRAW);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+        gl.glBindBufferBase(GL3.GL_UNIFORM_BUFFER, BINDING, bufferId[0]);
+    }
+
+    /**
+     * Upload the camera matrices. Call once per frame, before drawing.
+     * @param gl The GL3 object
+     * @param camera The camera to view the scene from
+     */
+    public void update(GL3 gl, Camera camera) {
+        Mat4 view = camera.getViewMatrix();
+        Mat4 projection = camera.getPerspectiveMatrix();
+        Mat4 viewProjection = camera.getViewProjectionMatrix();
+        Vec3 position = camera.getPosition();
+
+        view.writeTo(data, VIEW_OFFSET);
+        projection.writeTo(data, PROJECTION_OFFSET);
+        viewProjection.writeTo(data, VIEW_PROJECTION_OFFSET);
+        data.put(VIEW_POS_OFFSET, position.x);
+        data.put(VIEW_POS_OFFSET+1, position.y);
+        data.put(VIEW_POS_OFFSET+2, position.z);
+
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+        gl.glBufferSubData(GL3.GL_UNIFORM_BUFFER, 0, (long) SIZE_FLOATS * Float.BYTES, data);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Dispose of the uniform buffer.
+     * @param gl The GL3 object
+     */
+    public void dispose(GL3 gl) {
+        gl.glDeleteBuffers(1, bufferId, 0);
+    }
+}
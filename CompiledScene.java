@@ -0,0 +1,114 @@
+import gmaths.Mat4;
+
+import java.util.ArrayList;
+
+/**
+ * CompiledScene class to update the transforms of a scene graph using flat arrays.
+ * The nodes are stored in depth first order with the index of each node's parent, so a
+ * parent always comes before its children and every world transform is computed in a single
+ * linear pass over packed column major matrices, with clean subtrees skipped in one step.
+ * The SGNode tree stays the authoring layer: changes made with setTransform are picked up on
+ * the next update, and the new transforms are written back to the nodes that changed.
+ * The structure is fixed when compiled, so adding nodes afterwards needs a new CompiledScene.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class CompiledScene {
+    private static final int PROFILE_SCOPE = FrameProfiler.scope("scene graph");
+
+    private final SGNode[] nodes;
+    private final Mat4[] localSources;  // the local transform of each node, null for non-transform nodes
+    private final int[] parents;        // the index of each node's parent, -1 for the root
+    private final int[] subtreeEnds;    // the index just past the last descendant of each node
+    private final float[] local;        // 16 floats per node
+    private final float[] world;        // 16 floats per node, after the root's incoming transform
+    private final boolean[] changed;
+
+    /**
+     * Compile the scene graph below the given root.
+     * @param root The root of the scene graph
+     */
+    public CompiledScene(SGNode root) {
+        ArrayList<SGNode> order = new ArrayList<>();
+        ArrayList<Integer> parentList = new ArrayList<>();
+        ArrayList<Integer> endList = new ArrayList<>();
+        flatten(root, -1, order, parentList, endList);
+
+        int n = order.size();
+        this.nodes = order.toArray(new SGNode[n]);
+        this.localSources = new Mat4[n];
+        this.parents = new int[n];
+        this.subtreeEnds = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.localSources[i] = this.nodes[i].getLocalTransform();
+            this.parents[i] = parentList.get(i);
+            this.subtreeEnds[i] = endList.get(i);
+        }
+        this.local = new float[n * 16];
+        this.world = new float[(n + 1) * 16];
+        this.changed = new boolean[n];
+
+        // the incoming transform of a node is its own world transform, as with SGNode.update
+        root.worldTransform.writeTo(this.world, 0);
+    }
+
+    /**
+     * Add a node and its descendants in depth first order.
+     * @return The index just past the last node added
+     */
+    private static int flatten(SGNode node, int parent, ArrayList<SGNode> order,
+                               ArrayList<Integer> parentList, ArrayList<Integer> endList) {
+        int index = order.size();
+        order.add(node);
+        parentList.add(parent);
+        endList.add(0);
+        int end = index + 1;
+        for (SGNode child : node.children) {
+            end = flatten(child, index, order, parentList, endList);
+        }
+        endList.set(index, end);
+        return end;
+    }
+
+    /**
+     * Recompute the world transforms of every node below a changed transform.
+     */
+    public void update() {
+        FrameProfiler.begin(PROFILE_SCOPE);
+        int n = this.nodes.length;
+        int i = 0;
+        while (i < n) {
+            SGNode node = this.nodes[i];
+            int parent = this.parents[i];
+            boolean c = node.dirty || (parent >= 0 && this.changed[parent]);
+            if (!c && !node.childDirty) {
+                i = this.subtreeEnds[i];  // nothing at or below this node has changed
+                continue;
+            }
+            this.changed[i] = c;
+            node.dirty = false;
+            node.childDirty = false;
+            if (c) {
+                int parentOffset = (parent + 1) * 16;
+                int offset = (i + 1) * 16;
+                Mat4 source = this.localSources[i];
+                if (source != null) {
+                    source.writeTo(this.local, i * 16);
+                    Mat4.mulInto(this.world, parentOffset, this.local, i * 16, this.world, offset);
+                } else {
+                    System.arraycopy(this.world, parentOffset, this.world, offset, 16);
+                }
+                node.setCompiledTransform(this.world, parentOffset, offset);
+            }
+            i++;
+        }
+        FrameProfiler.end(PROFILE_SCOPE);
+    }
+
+    /**
+     * Get the number of nodes in the compiled scene.
+     * @return The number of nodes
+     */
+    public int size() {
+        return this.nodes.length;
+    }
+}
@@ -10,10 +10,16 @@ import gmaths.Vec3;
  */
 public class DancingRobot {
     private final SGNode root;
+    private final CompiledScene scene;
     private final Model[] spheres;
     private final Light[] lights;
     private final Camera camera;
     private final AnimationController danceController;
+
+    // Scratch matrices so that the per-frame animation does not allocate
+    private final Mat4 first = new Mat4(1);
+    private final Mat4 second = new Mat4(1);
+    private final Mat4 combined = new Mat4(1);
     private TransformNode topLegTransform, bottomLegTransform, bodyPartsTransform, armsTransform,
             antennaTransform;
 
@@ -22,6 +28,12 @@ public class DancingRobot {
     };
     private State state = State.USE_DISTANCE;
 
+    // trace marks for the phases of the dance, in order
+    private static final String[] PHASE_MARKS = {
+            "dance: descend", "dance: ascend", "dance: return", "dance: dance", "dance: reset"
+    };
+    private int phase = -1;
+
     /**
      * Create a new dancing robot with the given camera, lights, and texture library.
      * @param gl The GL3 object
@@ -120,7 +132,8 @@ public class DancingRobot {
                                                 this.antennaTransform.addChild(antenna2);
                                                 this.antennaTransform.addChild(antenna3);
 
-        this.root.update();
+        this.scene = new CompiledScene(this.root);
+        this.scene.update();
     }
 
     /**
@@ -131,7 +144,7 @@ public class DancingRobot {
      * @return The model
      */
     public Model createModel(GL3 gl, Texture diffuse, Texture specular) {
-        return Utilities.makeModel(gl, "sphere", Sphere.vertices.clone(), Sphere.indices.clone(),
+        return Utilities.makeModel(gl, "sphere", Sphere.vertices, Sphere.indices,
                 diffuse, specular, this.lights, this.camera);
     }
 
@@ -379,6 +392,11 @@ public class DancingRobot {
     public void performAnimation() {
         this.danceController.update();
         double progress = danceController.getProgress();
+        int phase = progress <= 0.2 ? 0 : progress <= 0.4 ? 1 : progress <= 0.6 ? 2 : progress <= 0.8 ? 3 : 4;
+        if (phase != this.phase) {
+            FrameProfiler.mark(PHASE_MARKS[phase]);
+            this.phase = phase;
+        }
 
         // Phase 1: Descend and Rotate
         if (progress <= 0.2) {
@@ -433,12 +451,9 @@ public class DancingRobot {
      * @param rotation The rotation of the spring
      */
     private void springAnimation(float translation, float rotation) {
-        Mat4 currentTransform = new Mat4(1);
-        currentTransform = Mat4.multiply(currentTransform, Mat4Transform.translate(0, translation, 0));
-        currentTransform = Mat4.multiply(currentTransform, Mat4Transform.rotateAroundY(rotation));
+        Mat4.mulInto(this.first.setTranslate(0, translation, 0), this.second.setRotateY(rotation), this.combined);
 
-        this.bodyPartsTransform.setTransform(currentTransform);
-        this.bodyPartsTransform.update();
+        this.bodyPartsTransform.setTransform(this.combined);
     }
 
     /**
@@ -451,26 +466,23 @@ public class DancingRobot {
      */
     private void danceAnimation(float bottomLegRotation, float topLegRotation, float armZRotation,
                                 float armXRotation, float antennaRotation) {
-        this.bottomLegTransform.setTransform(Mat4Transform.rotateAroundZ(bottomLegRotation));
-        this.bottomLegTransform.update();
-
-        this.topLegTransform.setTransform(Mat4Transform.rotateAroundZ(topLegRotation));
-        this.topLegTransform.update();
-
-        Mat4 armTransform = Mat4Transform.rotateAroundZ(armZRotation);
-        armTransform = Mat4.multiply(armTransform, Mat4Transform.rotateAroundX(armXRotation));
-        this.armsTransform.setTransform(armTransform);
-        this.armsTransform.update();
-        this.antennaTransform.setTransform(Mat4Transform.rotateAroundY(antennaRotation));
-        this.antennaTransform.update();
+        this.bottomLegTransform.setTransform(this.first.setRotateZ(bottomLegRotation));
+
+        this.topLegTransform.setTransform(this.first.setRotateZ(topLegRotation));
+
+        Mat4.mulInto(this.first.setRotateZ(armZRotation), this.second.setRotateX(armXRotation), this.combined);
+        this.armsTransform.setTransform(this.combined);
+        this.antennaTransform.setTransform(this.first.setRotateY(antennaRotation));
     }
 
     /**
-     * Render the robot.
-     * @param gl The GL3 object
+     * Queue the robot for rendering.
+     * @param queue The render queue for this frame
      */
-    public void render(GL3 gl) {
-        this.root.draw(gl);
+    public void render(RenderQueue queue) {
+        // apply this frame's transform changes; unchanged branches are skipped
+        this.scene.update();
+        this.root.draw(queue);
     }
 
     /**
@@ -0,0 +1,450 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * FrameProfiler class to measure where the time of each frame goes.
+ * Code is divided into named scopes, registered once with scope and timed with begin and end
+ * using System.nanoTime. The time spent in each scope during a frame is summed, and at the end of
+ * the frame it is written into a fixed size ring buffer holding the last CAPACITY frames, so
+ * recording does not allocate. Scopes may nest, in which case the outer scope includes the inner.
+ * Summaries (p50, p95, p99 and max) are computed on demand and can be exported as CSV.
+ * Recording happens on the GL thread; the summary methods may be called from any thread.
+ * While tracing, every begin and end is also kept as an event, together with named marks and
+ * garbage collection pauses, in a preallocated ring of the last TRACE_CAPACITY events, which can
+ * be written in the Chrome trace event format and opened in chrome://tracing or Perfetto.
+ * Optionally, the bytes allocated by the thread in each scope are recorded in the same way, using
+ * ThreadMXBean.getCurrentThreadAllocatedBytes.
+ * A scope can also be registered with a JFR event, which is emitted around it whenever a flight
+ * recording has that event enabled, whether or not the profiler itself is recording.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class FrameProfiler {
+    public static final int CAPACITY = 512;  // frames kept for each scope
+    private static final int MAX_SCOPES = 32;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The scope covering a whole frame, from beginFrame to endFrame.
+     */
+    public static final int FRAME;
+
+    private static final String[] names = new String[MAX_SCOPES];
+    private static int scopeCount;
+    private static final long[] starts = new long[MAX_SCOPES];
+    private static final long[] accumulated = new long[MAX_SCOPES];
+    private static final long[][] history = new long[MAX_SCOPES][CAPACITY];
+    private static long framesRecorded;
+    private static final long[] scratch = new long[CAPACITY];  // sorted copy for percentiles
+    private static volatile boolean enabled = true;
+
+    private static final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long[] allocationStarts = new long[MAX_SCOPES];
+    private static final long[] allocated = new long[MAX_SCOPES];
+    private static final long[][] allocationHistory = new long[MAX_SCOPES][CAPACITY];
+    private static volatile boolean trackingAllocations;
+    private static final Supplier<?>[] jfrFactories = new Supplier<?>[MAX_SCOPES];
+    private static final EventType[] jfrTypes = new EventType[MAX_SCOPES];
+    private static final Event[] jfrEvents = new Event[MAX_SCOPES];  // the open event of each scope
+
+    public static final int TRACE_CAPACITY = 1 << 16;  // events kept while tracing
+    private static final char BEGIN = 'B', END = 'E', MARK = 'i', COMPLETE = 'X';
+    private static final long traceBase = System.nanoTime();
+    private static String[] traceNames;  // allocated when tracing is first turned on
+    private static char[] tracePhases;
+    private static long[] traceTimes;
+    private static long[] traceDurations;  // only for COMPLETE events
+    private static long[] traceThreads;
+    private static long traceCount;
+    private static volatile boolean tracing;
+    private static boolean gcListenerInstalled;
+
+    static {
+        FRAME = scope("frame", JfrEvents.FrameEvent::new);
+    }
+
+    private FrameProfiler() {}
+
+    /**
+     * Register a scope, or find it if a scope of that name exists already.
+     * @param name The name of the scope
+     * @return The ID to pass to begin and end
+     */
+    public static synchronized int scope(String name) {
+        for (int i=0; i<scopeCount; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        if (scopeCount == MAX_SCOPES) {
+            throw new IllegalStateException("Too many profiler scopes, cannot add " + name);
+        }
+        names[scopeCount] = name;
+        return scopeCount++;
+    }
+
+    /**
+     * Register a scope that also emits a JFR event, or find it if a scope of that name exists already.
+     * @param name The name of the scope
+     * @param jfrEvent Creates the event emitted around each begin and end of the scope
+     * @return The ID to pass to begin and end
+     */
+    public static synchronized int scope(String name, Supplier<? extends Event> jfrEvent) {
+        int scope = scope(name);
+        if (jfrFactories[scope] == null) {
+            jfrFactories[scope] = jfrEvent;
+            jfrTypes[scope] = EventType.getEventType(jfrEvent.get().getClass());
+        }
+        return scope;
+    }
+
+    /**
+     * Turn recording on or off. While off, begin, end and the frame methods only emit JFR events.
+     * @param enabled Whether to record
+     */
+    public static void setEnabled(boolean enabled) {
+        FrameProfiler.enabled = enabled;
+    }
+
+    /**
+     * Check whether recording is on.
+     * @return True if recording
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn allocation tracking on or off. Frames recorded while it is off count 0 bytes.
+     * @param tracking Whether to record the bytes allocated in each scope
+     * @return False if the JVM cannot measure allocation, in which case tracking stays off
+     */
+    public static boolean setAllocationTracking(boolean tracking) {
+        if (tracking) {
+            if (!threadBean.isThreadAllocatedMemorySupported()) return false;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        trackingAllocations = tracking;
+        return true;
+    }
+
+    /**
+     * Check whether allocations are being tracked.
+     * @return True if tracking
+     */
+    public static boolean isTrackingAllocations() {
+        return trackingAllocations;
+    }
+
+    /**
+     * Turn event tracing on or off. The event buffer is allocated the first time it is turned on,
+     * and events recorded before it is turned off are kept until the next trace starts.
+     * @param tracing Whether to trace
+     */
+    public static synchronized void setTracing(boolean tracing) {
+        if (tracing && traceNames == null) {
+            traceNames = new String[TRACE_CAPACITY];
+            tracePhases = new char[TRACE_CAPACITY];
+            traceTimes = new long[TRACE_CAPACITY];
+            traceDurations = new long[TRACE_CAPACITY];
+            traceThreads = new long[TRACE_CAPACITY];
+        }
+        if (tracing && !FrameProfiler.tracing) {
+            traceCount = 0;
+            installGcListener();
+        }
+        FrameProfiler.tracing = tracing;
+    }
+
+    /**
+     * Check whether events are being traced.
+     * @return True if tracing
+     */
+    public static boolean isTracing() {
+        return tracing;
+    }
+
+    /**
+     * Start a frame. Time recorded in scopes since the last frame ended is discarded.
+     */
+    public static void beginFrame() {
+        if (enabled) {
+            Arrays.fill(accumulated, 0, scopeCount, 0);
+            Arrays.fill(allocated, 0, scopeCount, 0);
+        }
+        begin(FRAME);
+    }
+
+    /**
+     * End a frame, storing the time spent in each scope during it.
+     */
+    public static void endFrame() {
+        end(FRAME);
+        if (!enabled) return;
+        synchronized (FrameProfiler.class) {
+            int slot = (int) (framesRecorded % CAPACITY);
+            for (int i=0; i<scopeCount; i++) {
+                history[i][slot] = accumulated[i];
+                allocationHistory[i][slot] = allocated[i];
+            }
+            framesRecorded++;
+        }
+    }
+
+    /**
+     * Start timing a scope.
+     * @param scope The ID of the scope
+     */
+    public static void begin(int scope) {
+        EventType type = jfrTypes[scope];
+        if (type != null && type.isEnabled()) {
+            Event event = (Event) jfrFactories[scope].get();
+            event.begin();
+            jfrEvents[scope] = event;
+        }
+        if (!enabled) return;
+        if (trackingAllocations) allocationStarts[scope] = threadBean.getCurrentThreadAllocatedBytes();
+        starts[scope] = System.nanoTime();
+        if (tracing) trace(names[scope], BEGIN, starts[scope], 0);
+    }
+
+    /**
+     * Stop timing a scope, adding the time since begin to the scope's total for this frame.
+     * @param scope The ID of the scope
+     */
+    public static void end(int scope) {
+        Event event = jfrEvents[scope];
+        if (event != null) {
+            event.commit();
+            jfrEvents[scope] = null;
+        }
+        if (!enabled) return;
+        long now = System.nanoTime();
+        accumulated[scope] += now - starts[scope];
+        if (trackingAllocations) allocated[scope] += threadBean.getCurrentThreadAllocatedBytes() - allocationStarts[scope];
+        if (tracing) trace(names[scope], END, now, 0);
+    }
+
+    /**
+     * Mark a point in time in the trace, e.g. a change of animation phase.
+     * Does nothing unless tracing.
+     * @param name The name of the mark, which should be a constant so that marking does not allocate
+     */
+    public static void mark(String name) {
+        if (enabled && tracing) trace(name, MARK, System.nanoTime(), 0);
+    }
+
+    /**
+     * Add an event to the trace ring, overwriting the oldest event when it is full.
+     * @param name The name of the event
+     * @param phase BEGIN, END, MARK or COMPLETE
+     * @param time The System.nanoTime of the event, or of its start for COMPLETE
+     * @param duration The duration in nanoseconds of a COMPLETE event
+     */
+    private static synchronized void trace(String name, char phase, long time, long duration) {
+        if (traceNames == null) return;
+        int slot = (int) (traceCount % TRACE_CAPACITY);
+        traceNames[slot] = name;
+        tracePhases[slot] = phase;
+        traceTimes[slot] = time;
+        traceDurations[slot] = duration;
+        traceThreads[slot] = Thread.currentThread().getId();
+        traceCount++;
+    }
+
+    /**
+     * Add each garbage collection to the trace as a complete event. The JVM reports a collection
+     * just after it ends, so its start is taken to be its duration before the notification.
+     */
+    private static void installGcListener() {
+        if (gcListenerInstalled) return;
+        gcListenerInstalled = true;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) continue;
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!tracing || !notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long duration = info.getGcInfo().getDuration() * 1_000_000L;
+                trace("gc: " + info.getGcAction(), COMPLETE, System.nanoTime() - duration, duration);
+            }, null, null);
+        }
+    }
+
+    /**
+     * Get the number of registered scopes. IDs run from 0 to this number minus 1.
+     * @return The number of scopes
+     */
+    public static synchronized int getScopeCount() {
+        return scopeCount;
+    }
+
+    /**
+     * Get the name of a scope.
+     * @param scope The ID of the scope
+     * @return The name
+     */
+    public static synchronized String getName(int scope) {
+        return names[scope];
+    }
+
+    /**
+     * Get the number of frames the summaries are computed over.
+     * @return The number of frames held, at most CAPACITY
+     */
+    public static synchronized int getFrameCount() {
+        return (int) Math.min(framesRecorded, CAPACITY);
+    }
+
+    /**
+     * Summarise the held frames of a scope.
+     * @param scope The ID of the scope
+     * @param out Receives p50, p95, p99 and max, in milliseconds; all 0 if no frames are held
+     */
+    public static synchronized void summarise(int scope, double[] out) {
+        int n = getFrameCount();
+        if (n == 0) {
+            Arrays.fill(out, 0, 4, 0);
+            return;
+        }
+        System.arraycopy(history[scope], 0, scratch, 0, n);
+        Arrays.sort(scratch, 0, n);
+        out[0] = percentile(n, 0.50);
+        out[1] = percentile(n, 0.95);
+        out[2] = percentile(n, 0.99);
+        out[3] = scratch[n-1] / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Summarise the bytes allocated by a scope in the held frames.
+     * @param scope The ID of the scope
+     * @param out Receives the mean and max bytes allocated per frame; both 0 if no frames are held
+     */
+    public static synchronized void summariseAllocations(int scope, long[] out) {
+        int n = getFrameCount();
+        long total = 0, max = 0;
+        for (int i=0; i<n; i++) {
+            total += allocationHistory[scope][i];
+            max = Math.max(max, allocationHistory[scope][i]);
+        }
+        out[0] = n == 0 ? 0 : total / n;
+        out[1] = max;
+    }
+
+    /**
+     * Get a percentile of the sorted scratch array, by the nearest rank method.
+     * @param n The number of values
+     * @param p The percentile, from 0 to 1
+     * @return The value in milliseconds
+     */
+    private static double percentile(int n, double p) {
+        int rank = (int) Math.ceil(p * n);
+        return scratch[Math.max(rank, 1) - 1] / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Format the summary of every scope as a table, e.g. for an overlay.
+     * @return The table, one scope per line
+     */
+    public static synchronized String formatSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %7s %7s %7s %7s", "ms (" + getFrameCount() + " frames)", "p50", "p95", "p99", "max"));
+        sb.append(trackingAllocations ? String.format(" %9s %9s%n", "B mean", "B max") : System.lineSeparator());
+        double[] stats = new double[4];
+        long[] bytes = new long[2];
+        for (int i=0; i<scopeCount; i++) {
+            summarise(i, stats);
+            sb.append(String.format("%-16s %7.3f %7.3f %7.3f %7.3f", names[i], stats[0], stats[1], stats[2], stats[3]));
+            if (trackingAllocations) {
+                summariseAllocations(i, bytes);
+                sb.append(String.format(" %9d %9d%n", bytes[0], bytes[1]));
+            } else {
+                sb.append(System.lineSeparator());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Forget the frames recorded so far, e.g. after warming up.
+     */
+    public static synchronized void clear() {
+        framesRecorded = 0;
+    }
+
+    /**
+     * Write the summary of every scope as CSV, with a header row.
+     * @param writer The destination, which is flushed but not closed
+     * @throws IOException If the destination cannot be written
+     */
+    public static synchronized void writeCsv(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("scope,frames,p50_ms,p95_ms,p99_ms,max_ms,mean_alloc_bytes,max_alloc_bytes");
+        double[] stats = new double[4];
+        long[] bytes = new long[2];
+        int frames = getFrameCount();
+        for (int i=0; i<scopeCount; i++) {
+            summarise(i, stats);
+            summariseAllocations(i, bytes);
+            out.printf(Locale.ROOT, "%s,%d,%.4f,%.4f,%.4f,%.4f,%d,%d%n", names[i], frames,
+                    stats[0], stats[1], stats[2], stats[3], bytes[0], bytes[1]);
+        }
+        out.flush();
+        if (out.checkError()) throw new IOException("Unable to write frame profile");
+    }
+
+    /**
+     * Write the traced events in the Chrome trace event JSON format, oldest first.
+     * Events from before the ring last wrapped are lost, so the first few ends may have no begin.
+     * @param writer The destination, which is flushed but not closed
+     * @throws IOException If the destination cannot be written
+     */
+    public static synchronized void writeTrace(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        long first = Math.max(0, traceCount - TRACE_CAPACITY);
+        Set<Long> threads = new HashSet<>();
+        boolean comma = false;
+        for (long i=first; i<traceCount; i++) {
+            int slot = (int) (i % TRACE_CAPACITY);
+            if (comma) out.println(",");
+            comma = true;
+            out.printf(Locale.ROOT, "{\"name\":\"%s\",\"ph\":\"%c\",\"ts\":%.3f,\"pid\":1,\"tid\":%d",
+                    escape(traceNames[slot]), tracePhases[slot], (traceTimes[slot] - traceBase) / 1e3, traceThreads[slot]);
+            if (tracePhases[slot] == COMPLETE) out.printf(Locale.ROOT, ",\"dur\":%.3f", traceDurations[slot] / 1e3);
+            if (tracePhases[slot] == MARK) out.print(",\"s\":\"t\"");
+            out.print("}");
+            threads.add(traceThreads[slot]);
+        }
+        // name the threads that are still alive
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!threads.contains(thread.getId())) continue;
+            if (comma) out.println(",");
+            comma = true;
+            out.printf("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                    thread.getId(), escape(thread.getName()));
+        }
+        out.println();
+        out.println("]}");
+        out.flush();
+        if (out.checkError()) throw new IOException("Unable to write frame trace");
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,144 @@
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GLBudgetCheck class to check the number of GL calls made per frame by the standard scene.
+ * The scene is set up and drawn headlessly on RecordingGL3, with placeholder textures, and the
+ * most calls of each category made in any frame are compared with a fixed budget. The stand-in
+ * hands out the locations of the uniforms declared in the shaders, so every uniform upload must go
+ * to a location that Shader resolved, and none to -1. Once the JIT has warmed up over every phase
+ * of the animations, the bytes each frame allocates are checked too, less the bytes the reflective
+ * stand-in allocates to pass the arguments of each call (see RecordingGL3.getProxyAllocatedBytes),
+ * so that only the scene's own garbage is counted. Every frame must net exactly 0 bytes, except
+ * for at most ALLOCATING_FRAMES, as the JVM can still allocate when a rarely taken path
+ * deoptimises. Run from the project directory, so that the shaders can be found; the exit code is
+ * 1 if a budget is exceeded.
+ * Lower a budget when an optimisation makes fewer calls, so that it cannot quietly regress.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class GLBudgetCheck {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int WARM_UP_FRAMES = 2000;  // enough for the JIT to compile the frame
+    private static final double WARM_UP_SECONDS = 12;  // longer than the dance, so every phase has run
+    private static final int FRAMES = 120;
+    private static final long FRAME_MILLIS = 16;  // so that the animations move between frames
+
+    private static final int ALLOCATING_FRAMES = 2;  // of FRAMES, that may allocate; the rest must net 0 bytes
+
+    // Most calls per frame as measured at this commit; lower them with each optimisation. The scene
+    // is the one the listener sets up: the room, globe, moving robot, dancing robot and skybox, lit
+    // by two lights and a spotlight, at 1920x1080 with 1x1 placeholder textures, seen from the
+    // default camera position while the moving robot traverses the room
+    private static final Map<RecordingGL3.Category, Integer> BUDGETS = new EnumMap<>(RecordingGL3.Category.class);
+
+    static {
+        BUDGETS.put(RecordingGL3.Category.DRAW, 22);
+        BUDGETS.put(RecordingGL3.Category.UNIFORM, 66);
+        BUDGETS.put(RecordingGL3.Category.BIND, 86);
+        BUDGETS.put(RecordingGL3.Category.BUFFER_UPLOAD, 12);
+    }
+
+    /**
+     * Run the check.
+     * @param args Not used
+     * @throws InterruptedException If interrupted between frames
+     */
+    public static void main(String[] args) throws InterruptedException {
+        TextureLibrary.setPlaceholders(true);
+        RecordingGL3 recorder = new RecordingGL3();
+        Camera camera = new Camera(Camera.DEFAULT_POSITION, Camera.DEFAULT_TARGET, Camera.DEFAULT_UP);
+        Spacecraft_EventListener listener = new Spacecraft_EventListener(camera);
+        listener.init(recorder.getDrawable());
+        listener.reshape(recorder.getDrawable(), 0, 0, WIDTH, HEIGHT);
+        System.out.println("Initialisation: " + total(recorder.getCalls()) + " GL calls");
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean measureAllocation = FrameProfiler.setAllocationTracking(true);
+        double warmUpEnd = Utilities.getCurrentTime() + WARM_UP_SECONDS;
+        for (int i=0; i<WARM_UP_FRAMES || Utilities.getCurrentTime() < warmUpEnd; i++) {
+            listener.display(recorder.getDrawable());
+            if (i >= WARM_UP_FRAMES) Thread.sleep(FRAME_MILLIS);
+        }
+        FrameProfiler.clear();
+
+        Map<RecordingGL3.Category, Integer> maxCalls = new EnumMap<>(RecordingGL3.Category.class);
+        Map<String, Integer> maxMethodCalls = new HashMap<>();
+        long[] allocations = new long[FRAMES];
+        long[] corrected = new long[FRAMES];
+        int unresolvedUniforms = 0;
+        for (int i=0; i<FRAMES; i++) {
+            recorder.reset();
+            long allocatedBefore = measureAllocation ? threads.getCurrentThreadAllocatedBytes() : 0;
+            listener.display(recorder.getDrawable());
+            if (measureAllocation) {
+                allocations[i] = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                corrected[i] = allocations[i] - recorder.getProxyAllocatedBytes();
+            }
+            for (RecordingGL3.Category category : RecordingGL3.Category.values()) {
+                maxCalls.merge(category, recorder.getCalls(category), Math::max);
+            }
+            unresolvedUniforms = Math.max(unresolvedUniforms, recorder.getUnresolvedUniformCalls());
+            recorder.getCalls().forEach((method, calls) -> maxMethodCalls.merge(method, calls, Math::max));
+            Thread.sleep(FRAME_MILLIS);
+        }
+        listener.dispose(recorder.getDrawable());
+
+        System.out.println("Most calls in a frame, over " + FRAMES + " frames:");
+        maxMethodCalls.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> System.out.printf("  %-28s %5d%n", e.getKey(), e.getValue()));
+
+        boolean passed = true;
+        for (RecordingGL3.Category category : RecordingGL3.Category.values()) {
+            int calls = maxCalls.get(category);
+            Integer budget = BUDGETS.get(category);
+            boolean over = budget != null && calls > budget;
+            passed &= !over;
+            System.out.printf("%-14s %5d / %s%s%n", category, calls,
+                    budget == null ? "-" : budget.toString(), over ? "  OVER BUDGET" : "");
+        }
+        passed &= unresolvedUniforms == 0;
+        System.out.printf("%-14s %5d / 0%s%n", "UNRESOLVED", unresolvedUniforms,
+                unresolvedUniforms > 0 ? "  OVER BUDGET" : "");
+        System.out.println("GL state calls issued/elided: "
+                + GLStateCache.getIssuedCalls() + "/" + GLStateCache.getElidedCalls());
+        System.out.println("Texture residency: " + listener.getTextures().formatResidency());
+
+        System.out.println("Frame times and allocations (phases making GL calls include the stand-in's bytes):");
+        System.out.print(FrameProfiler.formatSummary());
+        if (measureAllocation) {
+            int allocating = 0;
+            long maxAllocated = 0;
+            for (int i=0; i<FRAMES; i++) {
+                if (corrected[i] != 0) allocating++;
+                maxAllocated = Math.max(maxAllocated, corrected[i]);
+            }
+            boolean over = allocating > ALLOCATING_FRAMES;
+            passed &= !over;
+            System.out.printf("%-14s %5d / %d%s (most bytes %d)%n", "ALLOC FRAMES", allocating, ALLOCATING_FRAMES,
+                    over ? "  OVER BUDGET" : "", maxAllocated);
+            Arrays.sort(allocations);
+            System.out.printf("%-14s %5d (max %d), including the stand-in's bytes, not checked%n",
+                    "  raw median", allocations[FRAMES/2], allocations[FRAMES-1]);
+        } else {
+            System.out.println("[warning] Thread allocation is not measurable on this JVM, allocation not checked");
+        }
+
+        if (!passed) {
+            System.err.println("[error] GL call or allocation budget exceeded");
+            System.exit(1);
+        }
+    }
+
+    private static int total(Map<String, Integer> calls) {
+        int total = 0;
+        for (int count : calls.values()) total += count;
+        return total;
+    }
+}
@@ -0,0 +1,181 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.texture.Texture;
+
+import java.util.Arrays;
+
+/**
+ * GLStateCache class to skip GL calls that would not change the current state.
+ * Tracks the current program, vertex array, active texture unit, the texture bound to each
+ * unit, the depth function and whether back faces are culled. Draw code goes through these
+ * methods instead of calling GL directly; code that changes tracked state directly must call
+ * invalidate afterwards. Counts of issued and skipped calls are kept for each frame.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class GLStateCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_UNITS = 16;
+
+    private static int program = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+    private static int activeUnit = UNKNOWN;
+    private static final int[] textures = new int[MAX_UNITS];  // texture name bound to each unit
+    private static int depthFunc = UNKNOWN;
+    private static int cullFace = UNKNOWN;  // 1 if enabled, 0 if disabled
+
+    private static int issued, elided;
+    private static int lastFrameIssued, lastFrameElided;
+
+    static {
+        Arrays.fill(textures, UNKNOWN);
+    }
+
+    private GLStateCache() {}
+
+    /**
+     * Start a new frame: keep the counts of the last one and forget the tracked state, so that
+     * changes made outside the cache between frames (e.g. while loading) cannot be missed.
+     */
+    public static void beginFrame() {
+        lastFrameIssued = issued;
+        lastFrameElided = elided;
+        issued = 0;
+        elided = 0;
+        invalidate();
+    }
+
+    /**
+     * Forget the tracked state, so that the next call of each kind is issued.
+     */
+    public static void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        depthFunc = UNKNOWN;
+        cullFace = UNKNOWN;
+    }
+
+    /**
+     * Use a shader program.
+     * @param gl The GL3 object
+     * @param id The program name
+     */
+    public static void useProgram(GL3 gl, int id) {
+        if (program == id) {
+            elided++;
+            return;
+        }
+        gl.glUseProgram(id);
+        program = id;
+        issued++;
+    }
+
+    /**
+     * Bind a vertex array.
+     * @param gl The GL3 object
+     * @param id The vertex array name
+     */
+    public static void bindVertexArray(GL3 gl, int id) {
+        if (vertexArray == id) {
+            elided++;
+            return;
+        }
+        gl.glBindVertexArray(id);
+        vertexArray = id;
+        issued++;
+    }
+
+    /**
+     * Bind a texture to a texture unit, selecting the unit first if needed.
+     * @param gl The GL3 object
+     * @param unit The texture unit, counting from 0
+     * @param target The texture target, e.g. GL_TEXTURE_2D
+     * @param id The texture name
+     */
+    public static void bindTexture(GL3 gl, int unit, int target, int id) {
+        if (unit < MAX_UNITS && textures[unit] == id) {
+            elided++;
+            return;
+        }
+        activeTexture(gl, unit);
+        gl.glBindTexture(target, id);
+        if (unit < MAX_UNITS) textures[unit] = id;
+        issued++;
+    }
+
+    /**
+     * Bind a JOGL texture to a texture unit. The texture's library is told it is in use, even if
+     * the bind is skipped, so that its image is loaded and kept resident, and gives the name to
+     * bind, as a texture whose file turned out to hold the same image as another's binds that one.
+     * @param gl The GL3 object
+     * @param unit The texture unit, counting from 0
+     * @param texture The texture
+     */
+    public static void bindTexture(GL3 gl, int unit, Texture texture) {
+        bindTexture(gl, unit, texture.getTarget(), TextureLibrary.use(texture));
+    }
+
+    /**
+     * Select the active texture unit.
+     * @param gl The GL3 object
+     * @param unit The texture unit, counting from 0
+     */
+    private static void activeTexture(GL3 gl, int unit) {
+        if (activeUnit == unit) {
+            elided++;
+            return;
+        }
+        gl.glActiveTexture(GL.GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issued++;
+    }
+
+    /**
+     * Set the depth comparison function.
+     * @param gl The GL3 object
+     * @param func The function, e.g. GL_LESS
+     */
+    public static void depthFunc(GL3 gl, int func) {
+        if (depthFunc == func) {
+            elided++;
+            return;
+        }
+        gl.glDepthFunc(func);
+        depthFunc = func;
+        issued++;
+    }
+
+    /**
+     * Enable or disable back face culling.
+     * @param gl The GL3 object
+     * @param enabled True to cull back faces
+     */
+    public static void setCullFace(GL3 gl, boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (cullFace == value) {
+            elided++;
+            return;
+        }
+        if (enabled) gl.glEnable(GL.GL_CULL_FACE);
+        else gl.glDisable(GL.GL_CULL_FACE);
+        cullFace = value;
+        issued++;
+    }
+
+    /**
+     * Get the number of state calls passed on to GL in the last complete frame.
+     * @return The number of issued calls
+     */
+    public static int getIssuedCalls() {
+        return lastFrameIssued;
+    }
+
+    /**
+     * Get the number of state calls skipped in the last complete frame.
+     * @return The number of elided calls
+     */
+    public static int getElidedCalls() {
+        return lastFrameElided;
+    }
+}
@@ -8,8 +8,10 @@ import gmaths.Mat4Transform;
  */
 public class Globe {
     private final SGNode root;
+    private final CompiledScene scene;
     private final Model cube, sphere1, sphere2;
     private TransformNode globeSphereSpin;
+    private final Mat4 spin = new Mat4(1);
 
     /**
      * Create a new globe object with the given camera, lights, and texture library.
@@ -28,11 +30,11 @@ public class Globe {
         textures.add(gl, "globeDiffuse", "assets/textures/globeDiffuse.jpg");
         textures.add(gl, "globeSpecular", "assets/textures/globeSpecular.jpg");
 
-        this.cube = Utilities.makeModel(gl, "cube", Cube.vertices.clone(), Cube.indices.clone(),
+        this.cube = Utilities.makeModel(gl, "cube", Cube.vertices, Cube.indices,
                 textures.get("baseDiffuse"), textures.get("baseSpecular"), lights, camera);
-        this.sphere1 = Utilities.makeModel(gl, "sphere", Sphere.vertices.clone(), Sphere.indices.clone(),
+        this.sphere1 = Utilities.makeModel(gl, "sphere", Sphere.vertices, Sphere.indices,
                 textures.get("axisDiffuse"), textures.get("axisSpecular"), lights, camera);
-        this.sphere2 = Utilities.makeModel(gl, "sphere", Sphere.vertices.clone(), Sphere.indices.clone(),
+        this.sphere2 = Utilities.makeModel(gl, "sphere", Sphere.vertices, Sphere.indices,
                 textures.get("globeDiffuse"), textures.get("globeSpecular"), lights, camera);
 
         float baseHeight = 0.5f;
@@ -53,7 +55,8 @@ public class Globe {
                 base.addChild(axis);
                     axis.addChild(globe);
 
-        this.root.update();
+        this.scene = new CompiledScene(this.root);
+        this.scene.update();
     }
 
     /**
@@ -137,16 +140,17 @@ public class Globe {
      */
     public void updateGlobeSpin() {
         double spinAngle = 30 * Utilities.getCurrentTime();
-        this.globeSphereSpin.setTransform(Mat4Transform.rotateAroundY((float) spinAngle));
-        this.globeSphereSpin.update();
+        this.globeSphereSpin.setTransform(this.spin.setRotateY((float) spinAngle));
     }
 
     /**
-     * Render the globe object.
-     * @param gl The GL3 object
+     * Queue the globe object for rendering.
+     * @param queue The render queue for this frame
      */
-    public void render(GL3 gl) {
-        root.draw(gl);
+    public void render(RenderQueue queue) {
+        // apply this frame's transform changes; unchanged branches are skipped
+        this.scene.update();
+        this.root.draw(queue);
     }
 
     /**
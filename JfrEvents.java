@@ -0,0 +1,125 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JfrEvents class holding the Java Flight Recorder events of the application, so that frame
+ * spikes can be lined up with allocation, GC and other JVM activity in a recording.
+ * Frame, scene update and render events are emitted by FrameProfiler for the scopes registered
+ * with them; the others are emitted where the work is done. Events cost next to nothing while
+ * they are not recorded. The thresholds below are defaults and can be changed like those of any
+ * JFR event, e.g. -XX:StartFlightRecording:spacecraft.Frame#threshold=20ms or in a .jfc file.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "Spacecraft";
+
+    private JfrEvents() {}
+
+    /**
+     * A whole frame, from FrameProfiler.beginFrame to endFrame.
+     */
+    @Name("spacecraft.Frame")
+    @Label("Frame")
+    @Category(CATEGORY)
+    @Description("Rendering of one frame")
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static final class FrameEvent extends Event {
+    }
+
+    /**
+     * The animation updates of a frame.
+     */
+    @Name("spacecraft.SceneUpdate")
+    @Label("Scene Update")
+    @Category(CATEGORY)
+    @Description("Animation updates of the objects in the scene")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SceneUpdateEvent extends Event {
+    }
+
+    /**
+     * The rendering of one object or pass of a frame.
+     */
+    @Name("spacecraft.Render")
+    @Label("Render")
+    @Category(CATEGORY)
+    @Description("Rendering of one object or pass of a frame")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class RenderEvent extends Event {
+        @Label("Object")
+        final String object;
+
+        RenderEvent(String object) {
+            this.object = object;
+        }
+    }
+
+    /**
+     * The compiling and linking of a shader program.
+     */
+    @Name("spacecraft.ShaderCompile")
+    @Label("Shader Compile")
+    @Category(CATEGORY)
+    @Description("Compiling and linking of a shader program")
+    @Threshold("0 ms")
+    static final class ShaderCompileEvent extends Event {
+        @Label("Vertex Shader")
+        String vertexShader;
+
+        @Label("Fragment Shader")
+        String fragmentShader;
+
+        @Label("Defines")
+        String defines;
+
+        @Label("Linked")
+        boolean linked;
+    }
+
+    /**
+     * The decoding of a texture image from a file, or its loading from the texture cache, on a
+     * decoder thread.
+     */
+    @Name("spacecraft.TextureLoad")
+    @Label("Texture Load")
+    @Category(CATEGORY)
+    @Description("Decoding of a texture image from a file")
+    @Threshold("0 ms")
+    static final class TextureLoadEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Loaded")
+        boolean loaded;
+
+        @Label("From Cache")
+        boolean cached;
+    }
+
+    /**
+     * The upload of a mesh's vertex and index buffers.
+     */
+    @Name("spacecraft.MeshUpload")
+    @Label("Mesh Upload")
+    @Category(CATEGORY)
+    @Description("Creation and upload of the vertex and index buffers of a mesh")
+    @Threshold("0 ms")
+    static final class MeshUploadEvent extends Event {
+        @Label("Vertex Data")
+        @DataAmount
+        long vertexBytes;
+
+        @Label("Index Data")
+        @DataAmount
+        long indexBytes;
+    }
+}
@@ -2,7 +2,6 @@ import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 import gmaths.Mat4;
-import gmaths.Mat4Transform;
 import gmaths.Vec3;
 
 import java.nio.FloatBuffer;
@@ -13,12 +12,17 @@ import java.nio.IntBuffer;
  * @author Dr. Steve Maddock
  */
 public class Light {
-  
+  public static final int STD140_FLOATS = 20;  // size of the Light struct in the Lights uniform block
+
   private Material material;
   private Vec3 position;
   private Mat4 model;
   Shader shader;
   Camera camera;
+  private int modelLocation;
+  protected float constant = 1.0f;  // attenuation terms
+  protected float linear = 0.014f;
+  protected float quadratic = 0.0007f;
 
   /**
    * Create a new light object with the given GL3 object.
@@ -33,7 +37,8 @@ public class Light {
     model = new Mat4(1);
     
     fillBuffers(gl);
-    shader = new Shader(gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
+    shader = ShaderLibrary.get(gl, "assets/shaders/vs_light_01.txt", "assets/shaders/fs_light_01.txt");
+    modelLocation = shader.getUniformLocation("model");
   }
 
   /**
@@ -92,6 +97,51 @@ public class Light {
     return material;
   }
 
+  /**
+   * Write the light as a std140 Light struct, as read from the Lights block of the standard
+   * fragment shaders. A point light is written as a spotlight with a full cone, so the shader's
+   * spotlight term is always 1.
+   * @param fb The buffer to write to
+   * @param offset The index of the first float to write
+   */
+  void writeTo(FloatBuffer fb, int offset) {
+    Vec3 ambient = material.peekAmbient();
+    Vec3 diffuse = material.peekDiffuse();
+    Vec3 specular = material.peekSpecular();
+    putVec3(fb, offset, position, -1.0f);            // position, cutOff
+    putVec3(fb, offset+4, 0, -1, 0, -2.0f);          // direction, outerCutOff
+    putVec3(fb, offset+8, ambient, constant);        // ambient, constant
+    putVec3(fb, offset+12, diffuse, linear);         // diffuse, linear
+    putVec3(fb, offset+16, specular, quadratic);     // specular, quadratic
+  }
+
+  /**
+   * Write a vec3 and the float packed after it.
+   * @param fb The buffer to write to
+   * @param offset The index of the first float to write
+   * @param v The vec3
+   * @param w The float after it
+   */
+  protected static void putVec3(FloatBuffer fb, int offset, Vec3 v, float w) {
+    putVec3(fb, offset, v.x, v.y, v.z, w);
+  }
+
+  /**
+   * Write a vec3 and the float packed after it.
+   * @param fb The buffer to write to
+   * @param offset The index of the first float to write
+   * @param x The x component of the vec3
+   * @param y The y component of the vec3
+   * @param z The z component of the vec3
+   * @param w The float after it
+   */
+  protected static void putVec3(FloatBuffer fb, int offset, float x, float y, float z, float w) {
+    fb.put(offset, x);
+    fb.put(offset+1, y);
+    fb.put(offset+2, z);
+    fb.put(offset+3, w);
+  }
+
   /**
    * Set the camera of the light.
    * @param camera The new camera of the light
@@ -105,19 +155,17 @@ public class Light {
    * @param gl The GL3 object
    */
   public void render(GL3 gl) { //, Mat4 perspective, Mat4 view) {
-    Mat4 model = new Mat4(1);
-    model = Mat4.multiply(Mat4Transform.scale(0.3f,0.3f,0.3f), model);
-    model = Mat4.multiply(Mat4Transform.translate(position), model);
-    
-    Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), Mat4.multiply(camera.getViewMatrix(), model));
+    model.setScale(0.3f,0.3f,0.3f);
+    model.set(0, 3, position.x);  // translate(position) * scale, written directly
+    model.set(1, 3, position.y);
+    model.set(2, 3, position.z);
     
     shader.use(gl);
-    shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
+    shader.setMat4(gl, modelLocation, model);  // the view projection comes from the Camera block
   
-    gl.glBindVertexArray(vertexArrayId[0]);
+    GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
     
     gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
-    gl.glBindVertexArray(0);
   }
 
   /**
@@ -128,6 +176,8 @@ public class Light {
     gl.glDeleteBuffers(1, vertexBufferId, 0);
     gl.glDeleteVertexArrays(1, vertexArrayId, 0);
     gl.glDeleteBuffers(1, elementBufferId, 0);
+    GLStateCache.invalidate();  // the names may be reused
+    ShaderLibrary.release(gl, shader);
   }
 
     // ***************************************************
@@ -178,7 +228,7 @@ public class Light {
    */
   protected void fillBuffers(GL3 gl) {
     gl.glGenVertexArrays(1, vertexArrayId, 0);
-    gl.glBindVertexArray(vertexArrayId[0]);
+    GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
     gl.glGenBuffers(1, vertexBufferId, 0);
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
     FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
@@ -0,0 +1,60 @@
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+import java.nio.FloatBuffer;
+
+/**
+ * LightBuffer class to share the scene lights with every shader through one uniform buffer.
+ * The lights are packed once per frame into the std140 Lights block of the standard fragment
+ * shaders, which Shader binds to BINDING when a program is linked.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class LightBuffer {
+    public static final String BLOCK_NAME = "Lights";
+    public static final int BINDING = 0;
+    public static final int MAX_LIGHTS = 10;  // must match MAX_POINT_LIGHTS in the fragment shaders
+
+    private static final int NUM_LIGHTS_OFFSET = MAX_LIGHTS * Light.STD140_FLOATS;
+    private static final int SIZE_FLOATS = NUM_LIGHTS_OFFSET + 4;  // blocks are padded to 16 bytes
+
+    private final int[] bufferId = new int[1];
+    private final FloatBuffer data = Buffers.newDirectFloatBuffer(SIZE_FLOATS);
+
+    /**
+     * Create the uniform buffer and attach it to its binding point.
+     * @param gl The GL3 object
+     */
+    public LightBuffer(GL3 gl) {
+        gl.glGenBuffers(1, bufferId, 0);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+        gl.glBufferData(GL3.GL_UNIFORM_BUFFER, (long) SIZE_FLOATS * Float.BYTES, null, GL.GL_DYNAMIC_DRAW);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+        gl.glBindBufferBase(GL3.GL_UNIFORM_BUFFER, BINDING, bufferId[0]);
+    }
+
+    /**
+     * Pack the lights into the buffer. Call once per frame, after the lights have moved.
+     * @param gl The GL3 object
+     * @param lights The lights in the scene; any beyond MAX_LIGHTS are ignored
+     */
+    public void update(GL3 gl, Light[] lights) {
+        int numLights = Math.min(lights.length, MAX_LIGHTS);
+        for (int i=0; i<numLights; i++) {
+            lights[i].writeTo(data, i * Light.STD140_FLOATS);
+        }
+        data.put(NUM_LIGHTS_OFFSET, Float.intBitsToFloat(numLights));  // an int in the block
+
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, bufferId[0]);
+        gl.glBufferSubData(GL3.GL_UNIFORM_BUFFER, 0, (long) SIZE_FLOATS * Float.BYTES, data);
+        gl.glBindBuffer(GL3.GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Dispose of the uniform buffer.
+     * @param gl The GL3 object
+     */
+    public void dispose(GL3 gl) {
+        gl.glDeleteBuffers(1, bufferId, 0);
+    }
+}
@@ -196,6 +196,54 @@ public class Material {
     return shininess;
   }
 
+  /**
+   * Gets the ambient value without cloning it, so that the render loop does not allocate.
+   * The vector must not be modified.
+   * 
+   * @return  the ambient vector of this material
+   */
+  Vec3 peekAmbient() {
+    return ambient;
+  }
+
+  /**
+   * Gets the diffuse value without cloning it, so that the render loop does not allocate.
+   * The vector must not be modified.
+   * 
+   * @return  the diffuse vector of this material
+   */
+  Vec3 peekDiffuse() {
+    return diffuse;
+  }
+
+  /**
+   * Gets the specular value without cloning it, so that the render loop does not allocate.
+   * The vector must not be modified.
+   * 
+   * @return  the specular vector of this material
+   */
+  Vec3 peekSpecular() {
+    return specular;
+  }
+
+  /**
+   * Checks whether another material has the same values, without cloning them.
+   * Used to skip setting the uniforms of a material equal to the one already set, and to
+   * batch models whose materials are separate objects with equal settings.
+   * 
+   * @param  m  the material to compare with
+   * @return  true if every value is equal
+   */
+  public boolean matches(Material m) {
+    return m == this || (m != null && shininess == m.shininess
+        && same(ambient, m.ambient) && same(diffuse, m.diffuse)
+        && same(specular, m.specular) && same(emission, m.emission));
+  }
+
+  private static boolean same(Vec3 a, Vec3 b) {
+    return a.x == b.x && a.y == b.y && a.z == b.z;
+  }
+
   public String toString() {
     return "a:"+ambient+", d:"+diffuse+", s:"+specular+", e:"+emission+", shininess:"+shininess;
   }  
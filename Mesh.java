@@ -10,6 +10,10 @@ import java.nio.IntBuffer;
  * @author Dr. Steve Maddock
  */
 public class Mesh {
+  public static final int INSTANCE_FLOATS = 25;  // per instance: model matrix (16) then normal matrix (9)
+  private static final int INSTANCE_MODEL_ATTRIBUTE = 3;   // mat4, uses locations 3 to 6
+  private static final int INSTANCE_NORMAL_ATTRIBUTE = 7;  // mat3, uses locations 7 to 9
+
   private float[] vertices;
   private int[] indices;
   private int vertexStride = 8;
@@ -19,6 +23,7 @@ public class Mesh {
   private int[] vertexBufferId = new int[1];
   private int[] vertexArrayId = new int[1];
   private int[] elementBufferId = new int[1];
+  private int[] instanceBufferId = new int[1];  // created on the first instanced draw
 
   /**
    * Create a mesh object with the given parameters.
@@ -37,9 +42,70 @@ public class Mesh {
    * @param gl The GL3 object
    */
   public void render(GL3 gl) {
-    gl.glBindVertexArray(vertexArrayId[0]);
+    bind(gl);
+    drawElements(gl);
+  }
+
+  /**
+   * Bind the vertex array of the mesh, so that several draws can share one bind.
+   * @param gl The GL3 object
+   */
+  public void bind(GL3 gl) {
+    GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
+  }
+
+  /**
+   * Draw the mesh object. The mesh must be bound.
+   * @param gl The GL3 object
+   */
+  public void drawElements(GL3 gl) {
     gl.glDrawElements(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0);
-    gl.glBindVertexArray(0);
+  }
+
+  /**
+   * Draw several copies of the mesh in one call. The mesh must be bound.
+   * @param gl The GL3 object
+   * @param instanceData INSTANCE_FLOATS column major floats per instance, starting at position 0
+   * @param instanceCount The number of instances to draw
+   */
+  public void drawInstanced(GL3 gl, FloatBuffer instanceData, int instanceCount) {
+    if (instanceBufferId[0] == 0) fillInstanceBuffer(gl);
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBufferId[0]);
+    long size = (long) Float.BYTES * INSTANCE_FLOATS * instanceCount;
+    gl.glBufferData(GL.GL_ARRAY_BUFFER, size, null, GL3.GL_STREAM_DRAW);  // orphan the last frame's data
+    gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, size, instanceData);
+    gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indices.length, GL.GL_UNSIGNED_INT, 0, instanceCount);
+  }
+
+  /**
+   * Create the per instance buffer and add its attributes to the vertex array, which must be bound.
+   * A matrix attribute takes one location per column.
+   * @param gl The GL3 object
+   */
+  private void fillInstanceBuffer(GL3 gl) {
+    gl.glGenBuffers(1, instanceBufferId, 0);
+    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBufferId[0]);
+    int stride = INSTANCE_FLOATS*Float.BYTES;
+    for (int i=0; i<4; i++) {
+      int location = INSTANCE_MODEL_ATTRIBUTE+i;
+      gl.glVertexAttribPointer(location, 4, GL.GL_FLOAT, false, stride, (long) i*4*Float.BYTES);
+      gl.glEnableVertexAttribArray(location);
+      gl.glVertexAttribDivisor(location, 1);
+    }
+    for (int i=0; i<3; i++) {
+      int location = INSTANCE_NORMAL_ATTRIBUTE+i;
+      gl.glVertexAttribPointer(location, 3, GL.GL_FLOAT, false, stride, (long) (16+i*3)*Float.BYTES);
+      gl.glEnableVertexAttribArray(location);
+      gl.glVertexAttribDivisor(location, 1);
+    }
+  }
+
+  /**
+   * Get the name of the vertex array of the mesh.
+   * @return The vertex array name
+   */
+  public int getVertexArrayId() {
+    return vertexArrayId[0];
   }
 
   /**
@@ -47,8 +113,10 @@ public class Mesh {
    * @param gl The GL3 object
    */
   private void fillBuffers(GL3 gl) {
+    JfrEvents.MeshUploadEvent event = new JfrEvents.MeshUploadEvent();
+    event.begin();
     gl.glGenVertexArrays(1, vertexArrayId, 0);
-    gl.glBindVertexArray(vertexArrayId[0]);
+    GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
     gl.glGenBuffers(1, vertexBufferId, 0);
     gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
     FloatBuffer fb = Buffers.newDirectFloatBuffer(vertices);
@@ -82,6 +150,10 @@ public class Mesh {
     gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elementBufferId[0]);
     gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, Integer.BYTES * indices.length, ib, GL.GL_STATIC_DRAW);
     //gl.glBindVertexArray(0); // remove this so shader can be validated. Should be ok as any new object will bind its own VAO
+
+    event.vertexBytes = (long) Float.BYTES * vertices.length;
+    event.indexBytes = (long) Integer.BYTES * indices.length;
+    event.commit();
   }
 
   /**
@@ -92,5 +164,7 @@ public class Mesh {
     gl.glDeleteBuffers(1, vertexBufferId, 0);
     gl.glDeleteVertexArrays(1, vertexArrayId, 0);
     gl.glDeleteBuffers(1, elementBufferId, 0);
+    if (instanceBufferId[0] != 0) gl.glDeleteBuffers(1, instanceBufferId, 0);
+    GLStateCache.invalidate();  // the names may be reused
   }
 }
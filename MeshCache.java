@@ -0,0 +1,108 @@
+import com.jogamp.opengl.GL3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * MeshCache class to share uploaded geometry between models.
+ * Meshes are keyed by the contents of their vertex and index arrays, so identical
+ * geometry is uploaded into a single VBO/EBO/VAO and reference counted.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class MeshCache {
+    private static final Map<Key, Entry> meshes = new HashMap<>();
+    private static final Map<Mesh, Entry> owners = new IdentityHashMap<>();
+
+    /**
+     * The geometry a mesh was created from, compared by content.
+     */
+    private static class Key {
+        private final float[] vertices;
+        private final int[] indices;
+        private final int hash;
+
+        private Key(float[] vertices, int[] indices) {
+            this.vertices = vertices;
+            this.indices = indices;
+            this.hash = 31 * Arrays.hashCode(vertices) + Arrays.hashCode(indices);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return hash == k.hash && Arrays.equals(vertices, k.vertices) && Arrays.equals(indices, k.indices);
+        }
+    }
+
+    /**
+     * A shared mesh and the number of users holding it.
+     */
+    private static class Entry {
+        private final Key key;
+        private final Mesh mesh;
+        private int refCount;
+
+        private Entry(Key key, Mesh mesh) {
+            this.key = key;
+            this.mesh = mesh;
+        }
+    }
+
+    private MeshCache() {}
+
+    /**
+     * Get a shared mesh for the given geometry, uploading it on first use.
+     * The arrays are copied on upload, so callers may pass the static shape data directly.
+     * Every call must be matched by a call to release.
+     * @param gl The GL3 object
+     * @param vertices The vertices of the mesh
+     * @param indices The indices of the mesh
+     * @return The shared mesh
+     */
+    public static Mesh get(GL3 gl, float[] vertices, int[] indices) {
+        Entry entry = meshes.get(new Key(vertices, indices));
+        if (entry == null) {
+            Key key = new Key(vertices.clone(), indices.clone());
+            entry = new Entry(key, new Mesh(gl, key.vertices, key.indices));
+            meshes.put(key, entry);
+            owners.put(entry.mesh, entry);
+        }
+        entry.refCount++;
+        return entry.mesh;
+    }
+
+    /**
+     * Release a mesh obtained from get. The GPU buffers are deleted when its last user releases it.
+     * @param gl The GL3 object
+     * @param mesh The mesh to release
+     */
+    public static void release(GL3 gl, Mesh mesh) {
+        Entry entry = owners.get(mesh);
+        if (entry == null) {
+            System.err.println("[error] Releasing a mesh not owned by the cache");
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount == 0) {
+            entry.mesh.dispose(gl);
+            meshes.remove(entry.key);
+            owners.remove(mesh);
+        }
+    }
+
+    /**
+     * Get the number of distinct meshes currently held by the cache.
+     * @return The number of meshes
+     */
+    public static int size() {
+        return meshes.size();
+    }
+}
@@ -1,6 +1,6 @@
-import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.util.texture.Texture;
+import gmaths.Mat3;
 import gmaths.Mat4;
 
 /**
@@ -11,12 +11,34 @@ public class Model {
     private String name;
     private Mesh mesh;
     private Mat4 modelMatrix;
+    private final Mat3 normalMatrix = new Mat3(1);  // normal matrix of modelMatrix
+    private final Mat3 scratchNormalMatrix = new Mat3(1);  // for render with another model matrix
     private Shader shader;
     private Material material;
-    private Camera camera;
-    private Light[] lights;
     private Texture diffuse;
     private Texture specular;
+    private boolean cullFace = true;
+    private Shader instancedShader;  // variant of shader taking its matrices per instance, or null
+
+    // Uniform locations, resolved whenever a shader changes
+    private Locations locations, instancedLocations;
+
+    /**
+     * The uniform locations of one shader, looked up once so that no names are built per draw.
+     */
+    private static class Locations {
+        private final int model, normalMatrix;
+        private final int materialAmbient, materialDiffuse, materialSpecular, materialShininess;
+
+        private Locations(Shader shader) {
+            model = shader.getUniformLocation("model");
+            normalMatrix = shader.getUniformLocation("normalMatrix");
+            materialAmbient = shader.getUniformLocation("material.ambient");
+            materialDiffuse = shader.getUniformLocation("material.diffuse");
+            materialSpecular = shader.getUniformLocation("material.specular");
+            materialShininess = shader.getUniformLocation("material.shininess");
+        }
+    }
 
     /**
      * Create a new empty model object.
@@ -26,8 +48,6 @@ public class Model {
         mesh = null;
         modelMatrix = null;
         material = null;
-        camera = null;
-        lights = null;
         shader = null;
     }
 
@@ -38,8 +58,8 @@ public class Model {
      * @param modelMatrix The model matrix of the model
      * @param shader The shader of the model
      * @param material The material of the model
-     * @param lights The lights in the scene
-     * @param camera The camera in the scene
+     * @param lights Ignored, the lights come from the LightBuffer uniform block
+     * @param camera Ignored, the camera comes from the CameraBuffer uniform block
      * @param diffuse The diffuse texture of the model
      * @param specular The specular texture of the model
      */
@@ -47,11 +67,9 @@ public class Model {
                                Camera camera, Texture diffuse, Texture specular) {
         this.name = name;
         this.mesh = mesh;
-        this.modelMatrix = modelMatrix;
-        this.shader = shader;
+        setModelMatrix(modelMatrix);
+        setShader(shader);
         this.material = material;
-        this.lights = lights;
-        this.camera = camera;
         this.diffuse = diffuse;
         this.specular = specular;
     }
@@ -63,8 +81,8 @@ public class Model {
      * @param modelMatrix The model matrix of the model
      * @param shader The shader of the model
      * @param material The material of the model
-     * @param lights The lights in the scene
-     * @param camera The camera in the scene
+     * @param lights Ignored, the lights come from the LightBuffer uniform block
+     * @param camera Ignored, the camera comes from the CameraBuffer uniform block
      * @param diffuse The diffuse texture of the model
      */
     public Model(String name, Mesh mesh, Mat4 modelMatrix, Shader shader, Material material, Light[] lights,
@@ -79,8 +97,8 @@ public class Model {
      * @param modelMatrix The model matrix of the model
      * @param shader The shader of the model
      * @param material The material of the model
-     * @param lights The lights in the scene
-     * @param camera The camera in the scene
+     * @param lights Ignored, the lights come from the LightBuffer uniform block
+     * @param camera Ignored, the camera comes from the CameraBuffer uniform block
      */
     public Model(String name, Mesh mesh, Mat4 modelMatrix, Shader shader, Material material, Light[] lights,
                                Camera camera) {
@@ -96,7 +114,7 @@ public class Model {
     }
 
     /**
-     * Set the mesh of the model.
+     * Set the mesh of the model. The model releases its mesh through MeshCache on dispose.
      * @param m The new mesh of the model
      */
     public void setMesh(Mesh m) {
@@ -109,6 +127,7 @@ public class Model {
      */
     public void setModelMatrix(Mat4 m) {
         modelMatrix = m;
+        if (m != null) Mat3.normalMatrixInto(m, normalMatrix);
     }
 
     /**
@@ -125,22 +144,26 @@ public class Model {
      */
     public void setShader(Shader shader) {
         this.shader = shader;
+        this.locations = shader == null ? null : new Locations(shader);
     }
 
     /**
-     * Set the camera of the model.
-     * @param camera The new camera of the model
+     * Set the instanced variant of the shader, which reads the model and normal matrices from
+     * per instance attributes. Models with one let a RenderQueue draw their copies in one call.
+     * The model releases it through ShaderLibrary on dispose.
+     * @param shader The instanced shader, or null to always draw the model singly
      */
-    public void setCamera(Camera camera) {
-        this.camera = camera;
+    public void setInstancedShader(Shader shader) {
+        this.instancedShader = shader;
+        this.instancedLocations = shader == null ? null : new Locations(shader);
     }
 
     /**
-     * Set the lights of the model.
-     * @param lights The new lights of the model
+     * Get the instanced variant of the shader.
+     * @return The instanced shader, or null if the model cannot be instanced
      */
-    public void setLights(Light[] lights) {
-        this.lights = lights;
+    public Shader getInstancedShader() {
+        return instancedShader;
     }
 
     /**
@@ -159,6 +182,62 @@ public class Model {
         this.specular = t;
     }
 
+    /**
+     * Set whether back faces are culled when the model is drawn through a RenderQueue.
+     * @param cullFace False to draw both sides, e.g. for single sided walls
+     */
+    public void setCullFace(boolean cullFace) {
+        this.cullFace = cullFace;
+    }
+
+    /**
+     * Get whether back faces are culled when the model is drawn.
+     * @return True if back faces are culled
+     */
+    public boolean isCullFace() {
+        return cullFace;
+    }
+
+    /**
+     * Get the mesh of the model.
+     * @return The mesh of the model
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * Get the shader of the model.
+     * @return The shader of the model
+     */
+    public Shader getShader() {
+        return shader;
+    }
+
+    /**
+     * Get the material of the model.
+     * @return The material of the model
+     */
+    public Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * Get the diffuse texture of the model.
+     * @return The diffuse texture, or null
+     */
+    public Texture getDiffuse() {
+        return diffuse;
+    }
+
+    /**
+     * Get the specular texture of the model.
+     * @return The specular texture, or null
+     */
+    public Texture getSpecular() {
+        return specular;
+    }
+
     /**
      * Render the name of the model to the console.
      * @param gl The GL3 object
@@ -172,75 +251,98 @@ public class Model {
      * @param gl The GL3 object
      */
     public void render(GL3 gl) {
-        render(gl, modelMatrix);
+        render(gl, modelMatrix, normalMatrix);
     }
 
     /**
-     * Render the model with the given model matrix.
+     * Render the model with the given model matrix. The normal matrix is computed here, into a
+     * matrix kept by the model, so prefer the overload taking a precomputed one on hot paths.
      * @param gl The GL3 object
      * @param modelMatrix The model matrix to render the model with
      */
     public void render(GL3 gl, Mat4 modelMatrix) {
+        Mat3.normalMatrixInto(modelMatrix, scratchNormalMatrix);
+        render(gl, modelMatrix, scratchNormalMatrix);
+    }
+
+    /**
+     * Render the model with the given model matrix and its precomputed normal matrix.
+     * Binds all of the model's state; use submit to have a RenderQueue skip redundant binds.
+     * @param gl The GL3 object
+     * @param modelMatrix The model matrix to render the model with
+     * @param normalMatrix The transpose of the inverse of the upper 3x3 part of modelMatrix
+     */
+    public void render(GL3 gl, Mat4 modelMatrix, Mat3 normalMatrix) {
         if (mesh_null()) {
             System.out.println("Error: null in model render");
             return;
         }
 
-        Mat4 mvpMatrix = Mat4.multiply(camera.getPerspectiveMatrix(), Mat4.multiply(camera.getViewMatrix(), modelMatrix));
-        shader.use(gl);
-        shader.setFloatArray(gl, "model", modelMatrix.toFloatArrayForGLSL());
-        shader.setFloatArray(gl, "mvpMatrix", mvpMatrix.toFloatArrayForGLSL());
-
-        shader.setVec3(gl, "viewPos", camera.getPosition());
-
-        shader.setInt(gl,"numLights", lights.length);
-
-        // Created by Ethan Watts (eawatts1@sheffield.ac.uk)
-        // Handles the new spotlight shader uniform variables
-        for (int i=0; i<lights.length; i++) {
-            shader.setVec3(gl, "lights["+i+"].position", lights[i].getPosition());
-            shader.setVec3(gl, "lights["+i+"].ambient", lights[i].getMaterial().getAmbient());
-            shader.setVec3(gl, "lights["+i+"].diffuse", lights[i].getMaterial().getDiffuse());
-            shader.setVec3(gl, "lights["+i+"].specular", lights[i].getMaterial().getSpecular());
-
-            if (lights[i] instanceof Spotlight) {
-                Spotlight spotlight = (Spotlight) lights[i];
-                shader.setVec3(gl, "lights["+i+"].direction", spotlight.getDirection());
-                shader.setFloat(gl, "lights["+i+"].cutOff", (float) Math.cos(Math.toRadians(spotlight.getCutoff())));
-                shader.setFloat(gl, "lights["+i+"].outerCutOff", (float) Math.cos(Math.toRadians(spotlight.getOuterCutoff())));
-                shader.setFloat(gl, "lights["+i+"].constant", 1.0f);
-                shader.setFloat(gl, "lights["+i+"].linear", 0.07f);
-                shader.setFloat(gl, "lights["+i+"].quadratic", 0.017f);
-            }
-
-            else { // point light
-                shader.setFloat(gl, "lights["+i+"].constant", 1.0f);
-                shader.setFloat(gl, "lights["+i+"].linear", 0.014f);
-                shader.setFloat(gl, "lights["+i+"].quadratic", 0.0007f);
-
-            }
-        }
-
-        shader.setVec3(gl, "material.ambient", material.getAmbient());
-        shader.setVec3(gl, "material.diffuse", material.getDiffuse());
-        shader.setVec3(gl, "material.specular", material.getSpecular());
-        shader.setFloat(gl, "material.shininess", material.getShininess());
+        shader.use(gl);  // the texture units are set once by Shader, the camera and lights by their buffers
+        applyTransformUniforms(gl, modelMatrix, normalMatrix);
+        applyMaterialUniforms(gl, false);
 
         if (diffuse!=null) {
-            shader.setInt(gl, "first_texture", 0);  // be careful to match these with GL_TEXTURE0 and GL_TEXTURE1
-            gl.glActiveTexture(GL.GL_TEXTURE0);
-            diffuse.bind(gl);
+            GLStateCache.bindTexture(gl, 0, diffuse);
         }
         if (specular!=null) {
-            shader.setInt(gl, "second_texture", 1);
-            gl.glActiveTexture(GL.GL_TEXTURE1);
-            specular.bind(gl);
+            GLStateCache.bindTexture(gl, 1, specular);
         }
 
         // then render the mesh
         mesh.render(gl);
     }
 
+    /**
+     * Queue the model for rendering with its own model matrix.
+     * @param queue The render queue for this frame
+     */
+    public void submit(RenderQueue queue) {
+        submit(queue, modelMatrix, normalMatrix);
+    }
+
+    /**
+     * Queue the model for rendering. The matrices are not copied, so they must not change
+     * until the queue has been flushed.
+     * @param queue The render queue for this frame
+     * @param modelMatrix The model matrix to render the model with
+     * @param normalMatrix The transpose of the inverse of the upper 3x3 part of modelMatrix
+     */
+    public void submit(RenderQueue queue, Mat4 modelMatrix, Mat3 normalMatrix) {
+        if (mesh_null()) {
+            System.out.println("Error: null in model render");
+            return;
+        }
+        queue.add(this, modelMatrix, normalMatrix);
+    }
+
+    /**
+     * Set the per draw matrices. The shader must be in use.
+     * Uniforms the shader does not declare, e.g. the normal matrix of the light shader, are skipped.
+     * @param gl The GL3 object
+     * @param modelMatrix The model matrix to render the model with
+     * @param normalMatrix The normal matrix of modelMatrix
+     */
+    void applyTransformUniforms(GL3 gl, Mat4 modelMatrix, Mat3 normalMatrix) {
+        if (locations.model >= 0) shader.setMat4(gl, locations.model, modelMatrix);
+        if (locations.normalMatrix >= 0) shader.setMat3(gl, locations.normalMatrix, normalMatrix);
+    }
+
+    /**
+     * Set the material uniforms. The shader must be in use.
+     * Uniforms the shader does not declare are skipped.
+     * @param gl The GL3 object
+     * @param instanced Whether to set the uniforms of the instanced shader
+     */
+    void applyMaterialUniforms(GL3 gl, boolean instanced) {
+        Shader shader = instanced ? instancedShader : this.shader;
+        Locations locations = instanced ? instancedLocations : this.locations;
+        if (locations.materialAmbient >= 0) shader.setVec3(gl, locations.materialAmbient, material.peekAmbient());
+        if (locations.materialDiffuse >= 0) shader.setVec3(gl, locations.materialDiffuse, material.peekDiffuse());
+        if (locations.materialSpecular >= 0) shader.setVec3(gl, locations.materialSpecular, material.peekSpecular());
+        if (locations.materialShininess >= 0) shader.setFloat(gl, locations.materialShininess, material.getShininess());
+    }
+
     /**
      * Helper methods to determine if the mesh is null.
      * @return True if the mesh is null, false otherwise
@@ -254,6 +356,8 @@ public class Model {
      * @param gl The GL3 object
      */
     public void dispose(GL3 gl) {
-        mesh.dispose(gl);  // only need to dispose of mesh
+        MeshCache.release(gl, mesh);
+        ShaderLibrary.release(gl, shader);
+        if (instancedShader != null) ShaderLibrary.release(gl, instancedShader);
     }
 }
@@ -1,4 +1,4 @@
-import com.jogamp.opengl.GL3;
+import gmaths.Mat3;
 
 /**
  * ModelNode class to handle a model node in the scene.
@@ -6,6 +6,7 @@ import com.jogamp.opengl.GL3;
  */
 public class ModelNode extends SGNode {
   protected Model model;
+  private final Mat3 normalMatrix = new Mat3(1);
 
   /**
    * Create a new model node with the given name and model.
@@ -18,13 +19,21 @@ public class ModelNode extends SGNode {
   }
 
   /**
-   * Render the model node.
-   * @param gl The GL3 object
+   * Recompute the normal matrix. Only called when the world transform has changed.
    */
-  public void draw(GL3 gl) {
-    model.render(gl, worldTransform);
-      for (SGNode child : children) {
-          child.draw(gl);
-      }
+  @Override
+  protected void worldTransformChanged() {
+    Mat3.normalMatrixInto(worldTransform, normalMatrix);
+  }
+
+  /**
+   * Queue the model node for rendering.
+   * @param queue The render queue for this frame
+   */
+  public void draw(RenderQueue queue) {
+    model.submit(queue, worldTransform, normalMatrix);
+    for (int i=0; i<children.size(); i++) {
+      children.get(i).draw(queue);
+    }
   }
 }
@@ -9,11 +9,18 @@ import gmaths.Vec3;
  */
 public class MovingRobot {
     private final SGNode root;
+    private final CompiledScene scene;
     private Model cube, sphere1, sphere2, sphere3;
     private TransformNode rotateSpotlightHousing, fullRobotTranslate, fullRobotRotate;
     private Vec3 position;
     private Vec3 direction;
 
+    // Scratch matrices so that the per-frame animation does not allocate
+    private final Mat4 tilt = Mat4Transform.rotateAroundX(25);
+    private final Mat4 rotateY = new Mat4(1);
+    private final Mat4 rotateZ = new Mat4(1);
+    private final Mat4 combined = new Mat4(1);
+
     /**
      * Create a new moving robot object with the given camera, lights, and texture library.
      * @param gl The GL3 object
@@ -32,13 +39,13 @@ public class MovingRobot {
         textures.add(gl, "housingSpecular", "assets/textures/movingRobotHousingSpecular.jpg");
         textures.add(gl, "bulb", "assets/textures/movingRobotBulb.jpg");
 
-        this.cube = Utilities.makeModel(gl, "cube", Cube.vertices.clone(), Cube.indices.clone(),
+        this.cube = Utilities.makeModel(gl, "cube", Cube.vertices, Cube.indices,
                 textures.get("bodyDiffuse"), textures.get("bodySpecular"), lights, camera);
-        this.sphere1 = Utilities.makeModel(gl, "sphere", Sphere.vertices.clone(), Sphere.indices.clone(),
+        this.sphere1 = Utilities.makeModel(gl, "sphere", Sphere.vertices, Sphere.indices,
                 textures.get("eyeDiffuse"), textures.get("eyeSpecular"), lights, camera);
-        this.sphere2 = Utilities.makeModel(gl, "sphere", Sphere.vertices.clone(), Sphere.indices.clone(),
+        this.sphere2 = Utilities.makeModel(gl, "sphere", Sphere.vertices, Sphere.indices,
                 textures.get("housingDiffuse"), textures.get("housingSpecular"), lights, camera);
-        this.sphere3 = Utilities.makeModel(gl, "light", Sphere.vertices.clone(), Sphere.indices.clone(),
+        this.sphere3 = Utilities.makeModel(gl, "light", Sphere.vertices, Sphere.indices,
                 null, null, lights, camera);
 
         float bodyHeight = 1f;
@@ -88,7 +95,8 @@ public class MovingRobot {
                                     spotlightHousing.addChild(spotlightBulb);
                                     spotlightBulb.addChild(spotlight);
 
-        this.root.update();
+        this.scene = new CompiledScene(this.root);
+        this.scene.update();
     }
 
     /**
@@ -238,11 +246,13 @@ public class MovingRobot {
     }
 
     /**
-     * Render the robot object.
-     * @param gl The GL3 object
+     * Queue the robot object for rendering.
+     * @param queue The render queue for this frame
      */
-    public void render(GL3 gl) {
-        this.root.draw(gl);
+    public void render(RenderQueue queue) {
+        // apply this frame's transform changes; unchanged branches are skipped
+        this.scene.update();
+        this.root.draw(queue);
     }
 
     /**
@@ -258,11 +268,9 @@ public class MovingRobot {
      */
     public void updateSpotlightSpin() {
         double spinAngle = 60 * Utilities.getCurrentTime();
-        Mat4 rotate = Mat4Transform.rotateAroundY((float) spinAngle);
-        rotate = Mat4.multiply(rotate, Mat4Transform.rotateAroundX(25));
+        Mat4.mulInto(this.rotateY.setRotateY((float) spinAngle), this.tilt, this.combined);
 
-        this.rotateSpotlightHousing.setTransform(rotate);
-        this.rotateSpotlightHousing.update();
+        this.rotateSpotlightHousing.setTransform(this.combined);
     }
 
     /**
@@ -300,8 +308,8 @@ public class MovingRobot {
             this.position.x += speed;
         }
 
-        this.fullRobotTranslate.setTransform(Mat4Transform.translate(this.position));
-        this.fullRobotTranslate.update();
+        this.fullRobotTranslate.setTransform(
+                this.combined.setTranslate(this.position.x, this.position.y, this.position.z));
     }
 
     /**
@@ -315,13 +323,8 @@ public class MovingRobot {
             this.direction.x -= speed;
         }
 
-        Mat4 rotate = Mat4Transform.rotateAroundY(this.direction.x);
-
         this.direction.z += 0.5f;
-        rotate = Mat4.multiply(rotate, Mat4Transform.rotateAroundZ(this.direction.z));
-
-        this.fullRobotRotate.setTransform(rotate);
-        this.fullRobotRotate.update();
+        updateRotation();
     }
 
     /**
@@ -329,11 +332,17 @@ public class MovingRobot {
      */
     private void reverseRotateZ() {
         this.direction.z -= 1f;
-        Mat4 rotate = Mat4Transform.rotateAroundY(this.direction.x);
-        rotate = Mat4.multiply(rotate, Mat4Transform.rotateAroundZ(this.direction.z));
+        updateRotation();
+    }
 
-        this.fullRobotRotate.setTransform(rotate);
-        this.fullRobotRotate.update();
+    /**
+     * Helper method to apply the current direction to the robot's rotation transform.
+     */
+    private void updateRotation() {
+        Mat4.mulInto(this.rotateY.setRotateY(this.direction.x), this.rotateZ.setRotateZ(this.direction.z),
+                this.combined);
+
+        this.fullRobotRotate.setTransform(this.combined);
     }
 
     /**
@@ -344,7 +353,6 @@ public class MovingRobot {
         this.sphere1.dispose(gl);
         this.sphere2.dispose(gl);
         this.sphere3.dispose(gl);
-        this.sphere3.dispose(gl);
         this.cube.dispose(gl);
     }
 }
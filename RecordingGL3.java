@@ -0,0 +1,575 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLAutoDrawable;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * RecordingGL3 class to stand in for a GL3 context when running the scene without a GPU.
+ * Every gl call is counted, by method name and by category, and otherwise does nothing, except
+ * that the glGen and glCreate calls hand out object names in sequence, shader and program
+ * status queries and fences report success, and glMapBufferRange returns a scratch buffer.
+ * Linking a program reads the uniforms declared in the sources of its shaders, so that the
+ * program reports them as active, with locations in the order declared, as a driver would. Every
+ * declared uniform is reported, even if the shader never reads it; members of uniform blocks are
+ * not, as they have no location. The type of a uniform is not reported.
+ * The stand-in is a dynamic proxy, so it covers the whole GL3 interface. JOGL utilities that need
+ * a real GLContext, such as TextureIO, do not work on it; see TextureLibrary.setPlaceholders.
+ * A proxy allocates an array for the arguments of each call and boxes most of them, so the bytes
+ * this costs are estimated from sizes measured once on the running JVM, so that GLBudgetCheck can
+ * take them out of what each frame allocates.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class RecordingGL3 implements InvocationHandler {
+
+    /**
+     * The kinds of call that GLBudgetCheck sets budgets for.
+     */
+    public enum Category {
+        DRAW,           // glDraw*
+        UNIFORM,        // glUniform* except glUniformBlockBinding
+        BIND,           // glBind*, glUseProgram and glActiveTexture
+        BUFFER_UPLOAD,  // glBufferData and glBufferSubData
+        OTHER
+    }
+
+    private static final Pattern STRUCT = Pattern.compile("\\bstruct\\s+(\\w+)\\s*\\{([^}]*)\\}\\s*;");
+    private static final Pattern BLOCK = Pattern.compile("\\buniform\\s+\\w+\\s*\\{[^}]*\\}[^;]*;");
+    private static final Pattern UNIFORM = Pattern.compile("\\buniform\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+([^;]+);");
+    private static final Pattern DECLARATOR = Pattern.compile("(\\w+)\\s*(?:\\[\\s*(\\w+)\\s*\\])?");
+
+    private static final int MAX_MEASURED_ARGS = 16;
+    private static final long[] argumentArrayBytes = new long[MAX_MEASURED_ARGS + 1];
+    private static long boxBytes, wideBoxBytes;  // an Integer or Float, and a Long or Double
+    private static boolean sizesMeasured;
+
+    private final GL3 gl;
+    private final GLAutoDrawable drawable;
+    private final Map<String, int[]> calls = new HashMap<>();  // mutable counts, so counting does not allocate
+    private final int[] categoryCalls = new int[Category.values().length];
+    private int unresolvedUniformCalls;
+    private int nextName = 1;
+    private final Map<Integer, String> shaderSources = new HashMap<>();
+    private final Map<Integer, List<Integer>> attachedShaders = new HashMap<>();
+    private final Map<Integer, List<Uniform>> programUniforms = new HashMap<>();
+    private ByteBuffer mapped;  // handed out by glMapBufferRange, whatever the buffer
+    private long proxyBytes;
+
+    /**
+     * Create a new stand-in with no calls recorded.
+     */
+    public RecordingGL3() {
+        this.gl = (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(), new Class<?>[]{ GL3.class }, this);
+        this.drawable = (GLAutoDrawable) Proxy.newProxyInstance(GLAutoDrawable.class.getClassLoader(),
+                new Class<?>[]{ GLAutoDrawable.class }, this::invokeDrawable);
+    }
+
+    /**
+     * Get the GL3 object that records calls.
+     * @return The GL3 object
+     */
+    public GL3 getGL() {
+        return this.gl;
+    }
+
+    /**
+     * Get a drawable whose getGL returns the recording GL3 object, for driving a GLEventListener.
+     * Every other method returns null, 0 or false.
+     * @return The drawable
+     */
+    public GLAutoDrawable getDrawable() {
+        return this.drawable;
+    }
+
+    /**
+     * Forget the calls recorded so far, e.g. at the start of a frame.
+     */
+    public void reset() {
+        for (int[] count : this.calls.values()) count[0] = 0;
+        Arrays.fill(this.categoryCalls, 0);
+        this.unresolvedUniformCalls = 0;
+        this.proxyBytes = 0;
+    }
+
+    /**
+     * Get the bytes the proxy allocated to pass the arguments of the calls since the last reset.
+     * This is an estimate: it assumes the JIT did not remove the allocations, and only counts the
+     * argument array and boxes of values outside the JVM's box caches.
+     * @return The estimated bytes
+     */
+    public long getProxyAllocatedBytes() {
+        return this.proxyBytes;
+    }
+
+    /**
+     * Get the number of calls of a category since the last reset.
+     * @param category The category
+     * @return The number of calls
+     */
+    public int getCalls(Category category) {
+        return this.categoryCalls[category.ordinal()];
+    }
+
+    /**
+     * Get the number of uniform uploads to location -1 since the last reset, which a driver
+     * ignores. These are uploads to a uniform that the program does not declare.
+     * @return The number of calls
+     */
+    public int getUnresolvedUniformCalls() {
+        return this.unresolvedUniformCalls;
+    }
+
+    /**
+     * Get the number of calls of a gl method since the last reset, across all its overloads.
+     * @param method The method name, e.g. "glDrawElements"
+     * @return The number of calls
+     */
+    public int getCalls(String method) {
+        int[] count = this.calls.get(method);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * Get the number of calls of every gl method called since the last reset.
+     * @return The counts, by method name in alphabetical order
+     */
+    public Map<String, Integer> getCalls() {
+        Map<String, Integer> result = new TreeMap<>();
+        this.calls.forEach((method, count) -> {
+            if (count[0] > 0) result.put(method, count[0]);
+        });
+        return result;
+    }
+
+    /**
+     * Get the category of a gl method.
+     * @param method The method name
+     * @return The category
+     */
+    public static Category categorise(String method) {
+        if (method.startsWith("glDraw")) return Category.DRAW;
+        if (method.startsWith("glUniform") && !method.equals("glUniformBlockBinding")) return Category.UNIFORM;
+        if (method.startsWith("glBind") || method.equals("glUseProgram") || method.equals("glActiveTexture")) {
+            return Category.BIND;
+        }
+        if (method.equals("glBufferData") || method.equals("glBufferSubData")) return Category.BUFFER_UPLOAD;
+        return Category.OTHER;
+    }
+
+    /**
+     * Handle a call on the GL3 proxy.
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class) return invokeObject(proxy, name, args);
+
+        if (!name.startsWith("gl")) {
+            // JOGL accessors such as getGL3 or getGL2ES2 return the proxy itself
+            if (method.getReturnType().isInstance(proxy)) return proxy;
+            return defaultValue(method.getReturnType());
+        }
+
+        this.calls.computeIfAbsent(name, k -> new int[1])[0]++;
+        Category category = categorise(name);
+        this.categoryCalls[category.ordinal()]++;
+        if (category == Category.UNIFORM && args[0] instanceof Integer && (Integer) args[0] < 0) {
+            this.unresolvedUniformCalls++;
+        }
+        this.proxyBytes += argumentBytes(args);
+
+        switch (name) {
+            case "glCreateProgram":
+            case "glCreateShader":
+                return this.nextName++;
+            case "glShaderSource":
+                this.shaderSources.put((Integer) args[0],
+                        String.join("", Arrays.copyOf((String[]) args[2], (Integer) args[1])));
+                return null;
+            case "glDeleteShader":
+                this.shaderSources.remove((Integer) args[0]);
+                return null;
+            case "glAttachShader":
+                this.attachedShaders.computeIfAbsent((Integer) args[0], k -> new ArrayList<>()).add((Integer) args[1]);
+                return null;
+            case "glDetachShader":
+                List<Integer> attached = this.attachedShaders.get((Integer) args[0]);
+                if (attached != null) attached.remove(args[1]);
+                return null;
+            case "glLinkProgram":
+                link((Integer) args[0]);
+                return null;
+            case "glDeleteProgram":
+                this.attachedShaders.remove((Integer) args[0]);
+                this.programUniforms.remove((Integer) args[0]);
+                return null;
+            case "glGetShaderiv":
+            case "glGetProgramiv":
+                int pname = (Integer) args[1];
+                boolean status = pname == GL3.GL_COMPILE_STATUS || pname == GL3.GL_LINK_STATUS
+                        || pname == GL3.GL_VALIDATE_STATUS;
+                int value = name.equals("glGetProgramiv") ? programParameter((Integer) args[0], pname) : 0;
+                putInt(args, 2, status ? GL.GL_TRUE : value);
+                return null;
+            case "glGetActiveUniform":
+                getActiveUniform(args);
+                return null;
+            case "glGetUniformLocation":
+                return uniformLocation((Integer) args[0], (String) args[1]);
+            case "glFenceSync":
+                return (long) this.nextName++;
+            case "glClientWaitSync":
+                return GL3.GL_ALREADY_SIGNALED;
+            case "glMapBufferRange":
+                int length = (int) (long) (Long) args[2];
+                if (this.mapped == null || this.mapped.capacity() < length) this.mapped = ByteBuffer.allocateDirect(length);
+                return this.mapped.clear().limit(length);
+            case "glGetError":
+                return GL.GL_NO_ERROR;
+            default:
+                if (name.startsWith("glGen") && args.length > 1
+                        && (args[1] instanceof int[] || args[1] instanceof IntBuffer)) {  // not glGenerateMipmap
+                    int n = (Integer) args[0];
+                    for (int i=0; i<n; i++) putInt(args, 1, i, this.nextName++);
+                    return null;
+                }
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * A uniform declared in a linked program, as glGetActiveUniform reports it.
+     */
+    private static class Uniform {
+        final String name;  // e.g. "material.ambient", or "name[0]" for an array
+        final int size;     // the number of array elements, or 1
+
+        Uniform(String name, int size) {
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Record the uniforms declared in the sources of the shaders attached to a program, in the
+     * order declared. A uniform declared in both stages is listed once.
+     * @param program The program name
+     */
+    private void link(int program) {
+        Map<String, Uniform> uniforms = new LinkedHashMap<>();
+        for (int shader : this.attachedShaders.getOrDefault(program, new ArrayList<>())) {
+            String source = this.shaderSources.get(shader);
+            if (source == null) continue;
+            for (Uniform uniform : declaredUniforms(source)) uniforms.putIfAbsent(uniform.name, uniform);
+        }
+        this.programUniforms.put(program, new ArrayList<>(uniforms.values()));
+    }
+
+    /**
+     * Get a uniform parameter of a program that is not a status.
+     * @param program The program name
+     * @param pname GL_ACTIVE_UNIFORMS or GL_ACTIVE_UNIFORM_MAX_LENGTH; others report 0
+     * @return The value of the parameter
+     */
+    private int programParameter(int program, int pname) {
+        List<Uniform> uniforms = this.programUniforms.get(program);
+        if (uniforms == null) return 0;
+        if (pname == GL3.GL_ACTIVE_UNIFORMS) return uniforms.size();
+        if (pname != GL3.GL_ACTIVE_UNIFORM_MAX_LENGTH) return 0;
+        int maxLength = 0;
+        for (Uniform uniform : uniforms) maxLength = Math.max(maxLength, uniform.name.length() + 1);  // with the terminator
+        return maxLength;
+    }
+
+    /**
+     * Answer glGetActiveUniform with the name and size of the uniform at an index, in either the
+     * array and offset form or the buffer form.
+     * @param args The arguments of the call
+     */
+    private void getActiveUniform(Object[] args) {
+        List<Uniform> uniforms = this.programUniforms.get((Integer) args[0]);
+        int index = (Integer) args[1];
+        if (uniforms == null || index < 0 || index >= uniforms.size()) return;
+        Uniform uniform = uniforms.get(index);
+        boolean arrays = args.length == 11;
+        byte[] name = uniform.name.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(name.length, Math.max((Integer) args[2] - 1, 0));
+        putInt(args, 3, length);
+        putInt(args, arrays ? 5 : 4, uniform.size);
+        if (arrays) {
+            System.arraycopy(name, 0, (byte[]) args[9], (Integer) args[10], length);
+        } else {
+            ByteBuffer buffer = (ByteBuffer) args[6];
+            for (int i=0; i<length; i++) buffer.put(buffer.position() + i, name[i]);
+        }
+    }
+
+    /**
+     * Get the location of a uniform in a linked program: its index in the order declared.
+     * @param program The program name
+     * @param name The name of the uniform; for an array, with or without the "[0]" suffix
+     * @return The location, or -1 if the program does not declare the uniform
+     */
+    private int uniformLocation(int program, String name) {
+        List<Uniform> uniforms = this.programUniforms.get(program);
+        if (uniforms == null) return -1;
+        for (int i=0; i<uniforms.size(); i++) {
+            String declared = uniforms.get(i).name;
+            if (declared.equals(name) || (declared.endsWith("[0]") && declared.startsWith(name)
+                    && declared.length() == name.length() + 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the uniforms declared in a shader source, after applying its #define, #ifdef, #ifndef,
+     * #else and #endif lines. Structs are expanded into their members, e.g. "material.ambient",
+     * arrays of basic types are named as "name[0]", and uniform blocks are skipped.
+     * @param source The shader source
+     * @return The uniforms, in the order declared
+     */
+    private static List<Uniform> declaredUniforms(String source) {
+        Map<String, String> defines = new HashMap<>();
+        String code = preprocess(source, defines);
+
+        Map<String, List<String[]>> structs = new HashMap<>();  // name -> {type, name, array length} per member
+        Matcher struct = STRUCT.matcher(code);
+        while (struct.find()) {
+            List<String[]> members = new ArrayList<>();
+            for (String member : struct.group(2).split(";")) {
+                String[] parts = member.trim().split("\\s+", 2);
+                if (parts.length < 2) continue;
+                for (String[] declarator : declarators(parts[1], defines)) {
+                    members.add(new String[]{ parts[0], declarator[0], declarator[1] });
+                }
+            }
+            structs.put(struct.group(1), members);
+        }
+
+        List<Uniform> uniforms = new ArrayList<>();
+        Matcher uniform = UNIFORM.matcher(BLOCK.matcher(code).replaceAll(""));
+        while (uniform.find()) {
+            for (String[] declarator : declarators(uniform.group(2), defines)) {
+                addUniform(uniforms, structs, uniform.group(1), declarator[0], declarator[1]);
+            }
+        }
+        return uniforms;
+    }
+
+    /**
+     * Add a uniform, or each member of a struct uniform, to a list.
+     * @param uniforms The list
+     * @param structs The members of each struct declared in the source
+     * @param type The type of the uniform
+     * @param name The name of the uniform, with the names of any enclosing structs
+     * @param arrayLength The number of array elements, or null if it is not an array
+     */
+    private static void addUniform(List<Uniform> uniforms, Map<String, List<String[]>> structs,
+                                   String type, String name, String arrayLength) {
+        int size = arrayLength == null ? 1 : Integer.parseInt(arrayLength);
+        List<String[]> members = structs.get(type);
+        if (members == null) {
+            uniforms.add(new Uniform(arrayLength == null ? name : name + "[0]", size));
+            return;
+        }
+        for (int i=0; i<size; i++) {
+            String element = arrayLength == null ? name : name + "[" + i + "]";
+            for (String[] member : members) addUniform(uniforms, structs, member[0], element + "." + member[1], member[2]);
+        }
+    }
+
+    /**
+     * Split the declarators of a declaration, e.g. "a, b[MAX]", into names and array lengths.
+     * @param text The declarators
+     * @param defines The values of the defined names, to resolve array lengths
+     * @return {name, array length or null} for each declarator
+     */
+    private static List<String[]> declarators(String text, Map<String, String> defines) {
+        List<String[]> result = new ArrayList<>();
+        for (String part : text.split(",")) {
+            Matcher declarator = DECLARATOR.matcher(part.trim());
+            if (!declarator.lookingAt()) continue;
+            String length = declarator.group(2);
+            if (length != null) length = defines.getOrDefault(length, length);
+            result.add(new String[]{ declarator.group(1), length });
+        }
+        return result;
+    }
+
+    /**
+     * Remove comments and the lines excluded by #ifdef, #ifndef and #else, recording #defines.
+     * @param source The shader source
+     * @param defines Receives the defined names and their values
+     * @return The remaining code, without preprocessor lines
+     */
+    private static String preprocess(String source, Map<String, String> defines) {
+        String code = source.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("//[^\\n]*", "");
+        StringBuilder sb = new StringBuilder();
+        Deque<Boolean> included = new ArrayDeque<>();  // whether each enclosing branch is included
+        included.push(true);
+        for (String line : code.split("\\n")) {
+            String[] words = line.trim().split("\\s+", 3);
+            switch (words[0]) {
+                case "#ifdef":
+                case "#ifndef":
+                    boolean defined = words.length > 1 && defines.containsKey(words[1]);
+                    included.push(included.peek() && defined == words[0].equals("#ifdef"));
+                    continue;
+                case "#else":
+                    boolean branch = included.pop();
+                    included.push(included.peek() && !branch);
+                    continue;
+                case "#endif":
+                    if (included.size() > 1) included.pop();
+                    continue;
+                case "#define":
+                    if (included.peek() && words.length > 1) defines.put(words[1], words.length > 2 ? words[2].trim() : "");
+                    continue;
+                default:
+                    if (words[0].startsWith("#")) continue;  // #version and the like
+                    if (included.peek()) sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Estimate the bytes allocated by the proxy to pass the given arguments.
+     * @param args The arguments of a call, or null if it has none
+     * @return The bytes of the argument array and of the boxes that are not cached
+     */
+    private static long argumentBytes(Object[] args) {
+        if (args == null) return 0;
+        measureSizes();
+        long bytes = args.length <= MAX_MEASURED_ARGS ? argumentArrayBytes[args.length]
+                : argumentArrayBytes[MAX_MEASURED_ARGS] + (argumentArrayBytes[MAX_MEASURED_ARGS] - argumentArrayBytes[0]) / MAX_MEASURED_ARGS * (args.length - MAX_MEASURED_ARGS);
+        for (Object arg : args) {
+            if (arg instanceof Float) bytes += boxBytes;
+            else if (arg instanceof Integer && !isCached((Integer) arg)) bytes += boxBytes;
+            else if (arg instanceof Double) bytes += wideBoxBytes;
+            else if (arg instanceof Long && !isCached((Long) arg)) bytes += wideBoxBytes;
+        }
+        return bytes;
+    }
+
+    private static boolean isCached(long value) {
+        return value >= -128 && value <= 127;  // the range Integer.valueOf and Long.valueOf always cache
+    }
+
+    /**
+     * Measure the size of argument arrays and boxes on this JVM, the first time it is needed.
+     */
+    private static synchronized void measureSizes() {
+        if (sizesMeasured) return;
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            sizesMeasured = true;
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        for (int n=0; n<=MAX_MEASURED_ARGS; n++) {
+            int length = n;
+            argumentArrayBytes[n] = measure(threads, i -> new Object[length]);
+        }
+        boxBytes = measure(threads, i -> Integer.valueOf(1000 + i));
+        wideBoxBytes = measure(threads, i -> Long.valueOf(1000 + i));
+        sizesMeasured = true;
+    }
+
+    /**
+     * Measure the bytes allocated by creating one object.
+     * @param threads The thread MX bean
+     * @param allocate Creates an object, given a counter
+     * @return The bytes per object
+     */
+    private static long measure(ThreadMXBean threads, IntFunction<Object> allocate) {
+        final int samples = 1000;
+        Object[] keep = new Object[samples];  // so the objects cannot be optimised away
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i=0; i<samples; i++) keep[i] = allocate.apply(i);
+        long after = threads.getCurrentThreadAllocatedBytes();
+        return Math.round((after - before) / (double) samples);
+    }
+
+    /**
+     * Handle a call on the drawable proxy.
+     */
+    private Object invokeDrawable(Object proxy, Method method, Object[] args) {
+        if (method.getDeclaringClass() == Object.class) return invokeObject(proxy, method.getName(), args);
+        if (method.getName().equals("getGL")) return this.gl;
+        return defaultValue(method.getReturnType());
+    }
+
+    private static Object invokeObject(Object proxy, String name, Object[] args) {
+        switch (name) {
+            case "equals": return proxy == args[0];
+            case "hashCode": return System.identityHashCode(proxy);
+            default: return "RecordingGL3";
+        }
+    }
+
+    /**
+     * Write an int result into an array and offset or an IntBuffer argument.
+     * @param args The arguments of the call
+     * @param index The index of the array or buffer argument
+     * @param value The value to write
+     */
+    private static void putInt(Object[] args, int index, int value) {
+        putInt(args, index, 0, value);
+    }
+
+    /**
+     * Write the i-th int result into an array and offset or an IntBuffer argument.
+     * @param args The arguments of the call
+     * @param index The index of the array or buffer argument
+     * @param i The index of the result
+     * @param value The value to write
+     */
+    private static void putInt(Object[] args, int index, int i, int value) {
+        if (args[index] instanceof int[]) {
+            ((int[]) args[index])[(Integer) args[index+1] + i] = value;
+        } else if (args[index] instanceof IntBuffer) {
+            IntBuffer buffer = (IntBuffer) args[index];
+            buffer.put(buffer.position() + i, value);
+        }
+    }
+
+    /**
+     * Get the value returned by a call that has nothing to report.
+     * @param type The return type
+     * @return null, false or 0 of the right type
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0d;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return (char) 0;
+        return 0;
+    }
+}
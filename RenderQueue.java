@@ -0,0 +1,192 @@
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.texture.Texture;
+import gmaths.Mat3;
+import gmaths.Mat4;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * RenderQueue class to collect the draws of a frame and submit them in state order.
+ * Models are added as lightweight items, sorted by a 64 bit key built from their render state,
+ * shader, textures and mesh, so that GLStateCache can skip most program, texture, vertex array
+ * and cull face changes. Runs of items sharing everything but their matrices become a single
+ * instanced draw. Items, keys and the instance buffer are pooled, so a steady frame does not allocate.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public class RenderQueue {
+    // Key layout, most significant first: cull off (1), shader (15), diffuse (12), specular (10),
+    // mesh (10), item index (16). GL names are masked to fit; a clash only costs a redundant bind.
+    private static final int INDEX_BITS = 16;
+    private static final int MAX_ITEMS = 1 << INDEX_BITS;
+    private static final long INDEX_MASK = MAX_ITEMS - 1;
+
+    private RenderItem[] items = new RenderItem[64];
+    private long[] keys = new long[64];
+    private int count;
+    private FloatBuffer instanceData;  // per instance matrices for instanced draws
+
+    /**
+     * A queued draw. The matrices are referenced rather than copied.
+     */
+    private static class RenderItem {
+        private Model model;
+        private Mat4 modelMatrix;
+        private Mat3 normalMatrix;
+    }
+
+    /**
+     * Add a draw to the queue. Called by Model.submit.
+     * @param model The model to draw
+     * @param modelMatrix The model matrix to draw it with
+     * @param normalMatrix The normal matrix of modelMatrix
+     */
+    void add(Model model, Mat4 modelMatrix, Mat3 normalMatrix) {
+        if (count == MAX_ITEMS) {
+            System.err.println("[error] Render queue is full, dropping draw");
+            return;
+        }
+        if (count == items.length) {
+            items = Arrays.copyOf(items, count * 2);
+            keys = Arrays.copyOf(keys, count * 2);
+        }
+        RenderItem item = items[count];
+        if (item == null) {
+            item = new RenderItem();
+            items[count] = item;
+        }
+        item.model = model;
+        item.modelMatrix = modelMatrix;
+        item.normalMatrix = normalMatrix;
+        keys[count] = (makeKey(model) << INDEX_BITS) | count;
+        count++;
+    }
+
+    /**
+     * Build the sort key of a model, without the item index.
+     * @param model The model
+     * @return The key, in the low 48 bits
+     */
+    private static long makeKey(Model model) {
+        long key = model.isCullFace() ? 0 : 1;
+        key = (key << 15) | (model.getShader().getID() & 0x7fff);
+        key = (key << 12) | (textureName(model.getDiffuse()) & 0xfff);
+        key = (key << 10) | (textureName(model.getSpecular()) & 0x3ff);
+        key = (key << 10) | (model.getMesh().getVertexArrayId() & 0x3ff);
+        return key;
+    }
+
+    private static int textureName(Texture texture) {
+        return texture == null ? 0 : TextureLibrary.nameOf(texture);
+    }
+
+    /**
+     * Sort and draw everything queued since the last flush, then empty the queue.
+     * Consecutive items that differ only in their matrices are drawn with one instanced call
+     * when their model has an instanced shader.
+     * Back face culling is left enabled.
+     * @param gl The GL3 object
+     */
+    public void flush(GL3 gl) {
+        Arrays.sort(keys, 0, count);
+
+        Shader boundShader = null;
+        Material boundMaterial = null;
+
+        int i = 0;
+        while (i < count) {
+            RenderItem item = itemAt(i);
+            Model model = item.model;
+            int runEnd = i + 1;
+            if (model.getInstancedShader() != null) {
+                while (runEnd < count && canInstance(model, itemAt(runEnd).model)) runEnd++;
+            }
+            boolean instanced = runEnd - i > 1;
+
+            GLStateCache.setCullFace(gl, model.isCullFace());
+
+            Shader shader = instanced ? model.getInstancedShader() : model.getShader();
+            if (shader != boundShader) {
+                shader.use(gl);
+                boundShader = shader;
+                boundMaterial = null;
+            }
+            if (!instanced) model.applyTransformUniforms(gl, item.modelMatrix, item.normalMatrix);
+            if (!model.getMaterial().matches(boundMaterial)) {  // models each have their own Material object
+                model.applyMaterialUniforms(gl, instanced);
+                boundMaterial = model.getMaterial();
+            }
+
+            if (model.getDiffuse() != null) GLStateCache.bindTexture(gl, 0, model.getDiffuse());
+            if (model.getSpecular() != null) GLStateCache.bindTexture(gl, 1, model.getSpecular());
+
+            Mesh mesh = model.getMesh();
+            mesh.bind(gl);
+            if (instanced) {
+                FloatBuffer data = instanceData(runEnd - i);
+                for (int j=i; j<runEnd; j++) {
+                    RenderItem instance = itemAt(j);
+                    int offset = (j - i) * Mesh.INSTANCE_FLOATS;
+                    instance.modelMatrix.writeTo(data, offset);
+                    instance.normalMatrix.writeTo(data, offset + 16);
+                }
+                mesh.drawInstanced(gl, data, runEnd - i);
+            } else {
+                mesh.drawElements(gl);
+            }
+
+            for (int j=i; j<runEnd; j++) {
+                RenderItem done = itemAt(j);
+                done.model = null;
+                done.modelMatrix = null;
+                done.normalMatrix = null;
+            }
+            i = runEnd;
+        }
+
+        GLStateCache.setCullFace(gl, true);
+        count = 0;
+    }
+
+    private RenderItem itemAt(int sortedIndex) {
+        return items[(int) (keys[sortedIndex] & INDEX_MASK)];
+    }
+
+    /**
+     * Check whether two models can be drawn by the same instanced call.
+     * @param a The first model, which has an instanced shader
+     * @param b The second model
+     * @return True if only their matrices differ
+     */
+    private static boolean canInstance(Model a, Model b) {
+        return a.getInstancedShader() == b.getInstancedShader()
+                && a.getMesh() == b.getMesh()
+                && a.getDiffuse() == b.getDiffuse()
+                && a.getSpecular() == b.getSpecular()
+                && a.isCullFace() == b.isCullFace()
+                && a.getMaterial().matches(b.getMaterial());
+    }
+
+    /**
+     * Get the instance buffer, growing it to hold at least the given number of instances.
+     * @param instances The number of instances
+     * @return The buffer, with its position at 0
+     */
+    private FloatBuffer instanceData(int instances) {
+        int floats = instances * Mesh.INSTANCE_FLOATS;
+        if (instanceData == null || instanceData.capacity() < floats) {
+            instanceData = Buffers.newDirectFloatBuffer(Math.max(floats, 2 * (instanceData == null ? 0 : instanceData.capacity())));
+        }
+        return instanceData;
+    }
+
+    /**
+     * Get the number of draws waiting to be flushed.
+     * @return The number of queued draws
+     */
+    public int size() {
+        return count;
+    }
+}
@@ -99,35 +99,34 @@ public class Room {
         Model model;
         switch (name) {
             case "window":
-                model = Utilities.makeModel(gl, name, TwoTrianglesWindowCutout.vertices.clone(), TwoTrianglesWindowCutout.indices.clone(),
+                model = Utilities.makeModel(gl, name, TwoTrianglesWindowCutout.vertices, TwoTrianglesWindowCutout.indices,
                         diffuse, specular, lights, camera);
                 break;
 
                 case "rightWall":
-                    model = Utilities.makeModel(gl, name, TwoTrianglesRepeating.vertices.clone(),
-                            TwoTrianglesRepeating.indices.clone(),
+                    model = Utilities.makeModel(gl, name, TwoTrianglesRepeating.vertices,
+                            TwoTrianglesRepeating.indices,
                             diffuse, specular, lights, camera);
                 break;
 
                 default:
-                model = Utilities.makeModel(gl, name, TwoTriangles.vertices.clone(), TwoTriangles.indices.clone(),
+                model = Utilities.makeModel(gl, name, TwoTriangles.vertices, TwoTriangles.indices,
                         diffuse, specular, lights, camera);
         }
 
         model.setModelMatrix(modelMatrix);
+        model.setCullFace(false);  // the walls are single quads seen from both sides
         return model;
     }
 
     /**
-     * Render the room.
-     * @param gl GL3
+     * Queue the room for rendering.
+     * @param queue The render queue for this frame
      */
-    public void render(GL3 gl) {
-        gl.glDisable(GL3.GL_CULL_FACE);
+    public void render(RenderQueue queue) {
         for (Model wall : walls) {
-            wall.render(gl);
+            wall.submit(queue);
         }
-        gl.glEnable(GL3.GL_CULL_FACE);
     }
 
     /**
@@ -1,4 +1,3 @@
-import com.jogamp.opengl.GL3;
 import gmaths.Mat4;
 
 import java.util.ArrayList;
@@ -11,6 +10,9 @@ public class SGNode {
   protected String name;
   protected ArrayList<SGNode> children;
   protected Mat4 worldTransform;
+  protected SGNode parent;
+  boolean dirty = true;       // this node's transform must be recomputed
+  boolean childDirty = true;  // some node below this one is dirty
 
   /**
    * Create a new scene graph node with the given name.
@@ -28,26 +30,83 @@ public class SGNode {
    */
   public void addChild(SGNode child) {
     children.add(child);
+    child.parent = this;
+    child.markDirty();
   }
 
   /**
-   * Update the scene graph node.
+   * Flag this node as needing its transform recomputed, and let its ancestors know
+   * so that the next update walks down to it. Clean branches are skipped by update.
+   */
+  protected void markDirty() {
+    dirty = true;
+    for (SGNode n = parent; n != null && !n.childDirty; n = n.parent) {
+      n.childDirty = true;
+    }
+  }
+
+  /**
+   * Update the scene graph node. Only subtrees below a changed transform are recomputed,
+   * so calling this once per frame on the root is cheap when most of the scene is static.
    */
   public void update() {
-    update(worldTransform);
+    update(worldTransform, false);
   }
 
   /**
    * Update the scene graph node with the given transformation matrix.
    * @param t The transformation matrix
+   * @param parentChanged Whether t has changed since this node was last updated
    */
-  protected void update(Mat4 t) {
-    worldTransform = t;
+  protected void update(Mat4 t, boolean parentChanged) {
+    boolean changed = parentChanged || dirty;
+    if (!changed && !childDirty) return;
+    if (changed) {
+      worldTransform.set(t);
+      worldTransformChanged();
+    }
+    dirty = false;
+    childDirty = false;
+    Mat4 childTransform = getChildTransform();
     for (int i=0; i<children.size(); i++) {
-      children.get(i).update(t);
+      children.get(i).update(childTransform, changed);
     }
   }
 
+  /**
+   * Called by update after the world transform of this node has changed.
+   * Subclasses override this to refresh anything derived from the world transform.
+   */
+  protected void worldTransformChanged() {
+  }
+
+  /**
+   * Get the transform passed on to the children of this node.
+   * @return The world transform of this node
+   */
+  protected Mat4 getChildTransform() {
+    return worldTransform;
+  }
+
+  /**
+   * Get the transform this node applies to its children. Used by CompiledScene.
+   * @return The local transform, or null if the node does not transform its children
+   */
+  Mat4 getLocalTransform() {
+    return null;
+  }
+
+  /**
+   * Take the transforms computed by a CompiledScene and refresh any derived state.
+   * @param packed The packed world transforms
+   * @param offset The offset of this node's world transform
+   * @param childOffset The offset of the transform passed on to the children
+   */
+  void setCompiledTransform(float[] packed, int offset, int childOffset) {
+    worldTransform.set(packed, offset);
+    worldTransformChanged();
+  }
+
   /**
    * Gets the indent string for the given indent level.
    * @param indent The indent level
@@ -78,12 +137,12 @@ public class SGNode {
   }
 
   /**
-   * Render all the nodes in the scene graph.
-   * @param gl The GL3 object
+   * Queue all the nodes in the scene graph for rendering.
+   * @param queue The render queue for this frame
    */
-  public void draw(GL3 gl) {
-      for (SGNode child : children) {
-          child.draw(gl);
-      }
+  public void draw(RenderQueue queue) {
+    for (int i=0; i<children.size(); i++) {
+      children.get(i).draw(queue);
+    }
   }
 }
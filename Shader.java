@@ -1,12 +1,17 @@
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL3;
-import com.jogamp.opengl.util.glsl.ShaderCode;
-import com.jogamp.opengl.util.glsl.ShaderProgram;
+import gmaths.Mat3;
+import gmaths.Mat4;
 import gmaths.Vec3;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Shader class to handle the shader for each object in the scene.
@@ -16,26 +21,94 @@ public class Shader {
 
   private static final boolean DISPLAY_SHADERS = false;
 
+  // Texture unit of each sampler, set once after linking; match these with the units the models bind
+  private static final String[] SAMPLER_NAMES = {"first_texture", "second_texture", "skybox", "animatedTexture"};
+  private static final int[] SAMPLER_UNITS = {0, 1, 0, 1};
+
   private int ID;
+  private final String vertexPath;
+  private final String fragmentPath;
+  private final String[] defines;
   private String vertexShaderSource;
   private String fragmentShaderSource;
+  private final Map<String, Integer> uniformLocations = new HashMap<>();
+  private final FloatBuffer matrixBuffer = Buffers.newDirectFloatBuffer(16);
+  private final FloatBuffer matrix3Buffer = Buffers.newDirectFloatBuffer(9);
 
   /**
    * Create a new shader with the given GL3 object and vertex and fragment shader paths.
+   * Prefer ShaderLibrary.get, which shares one program between models using the same files.
    * @param gl The GL3 object
    * @param vertexPath The path to the vertex shader
    * @param fragmentPath The path to the fragment shader
    */
   public Shader(GL3 gl, String vertexPath, String fragmentPath) {
+    this(gl, vertexPath, fragmentPath, new String[0]);
+  }
+
+  /**
+   * Create a new shader variant, with each define added as a #define after the #version line.
+   * @param gl The GL3 object
+   * @param vertexPath The path to the vertex shader
+   * @param fragmentPath The path to the fragment shader
+   * @param defines The names to define in both shader stages
+   */
+  public Shader(GL3 gl, String vertexPath, String fragmentPath, String[] defines) {
+    this.vertexPath = vertexPath;
+    this.fragmentPath = fragmentPath;
+    this.defines = defines.clone();
     try {
-      vertexShaderSource = Files.readString(Paths.get(vertexPath), Charset.defaultCharset());
-      fragmentShaderSource = Files.readString(Paths.get(fragmentPath), Charset.defaultCharset());
+      vertexShaderSource = addDefines(Files.readString(Paths.get(vertexPath), Charset.defaultCharset()));
+      fragmentShaderSource = addDefines(Files.readString(Paths.get(fragmentPath), Charset.defaultCharset()));
     }
     catch (IOException e) {
       e.printStackTrace();
     }
     if (DISPLAY_SHADERS) display();
     ID = compileAndLink(gl);
+    cacheUniformLocations(gl);
+    bindUniformBlock(gl, LightBuffer.BLOCK_NAME, LightBuffer.BINDING);
+    bindUniformBlock(gl, CameraBuffer.BLOCK_NAME, CameraBuffer.BINDING);
+    bindSamplers(gl);
+  }
+
+  /**
+   * Insert the defines of this variant after the #version line of the given source.
+   * @param source The shader source
+   * @return The source with the defines added
+   */
+  private String addDefines(String source) {
+    if (defines.length == 0) return source;
+    StringBuilder sb = new StringBuilder();
+    for (String define : defines) {
+      sb.append("#define ").append(define).append('\n');
+    }
+    int versionEnd = source.startsWith("#version") ? source.indexOf('\n') + 1 : 0;
+    return source.substring(0, versionEnd) + sb + source.substring(versionEnd);
+  }
+
+  /**
+   * Get the path to the vertex shader.
+   * @return The path to the vertex shader
+   */
+  public String getVertexPath() {
+    return vertexPath;
+  }
+
+  /**
+   * Get the path to the fragment shader.
+   * @return The path to the fragment shader
+   */
+  public String getFragmentPath() {
+    return fragmentPath;
+  }
+
+  /**
+   * Get the defines this variant was compiled with.
+   * @return A copy of the defines
+   */
+  public String[] getDefines() {
+    return defines.clone();
   }
 
   /**
@@ -51,7 +124,92 @@ public class Shader {
    * @param gl The GL3 object
    */
   public void use(GL3 gl) {
-    gl.glUseProgram(ID);
+    GLStateCache.useProgram(gl, ID);
+  }
+
+  /**
+   * Get the location of a uniform, as resolved once after linking.
+   * Resolve handles outside the render loop and pass them to the int based setters.
+   * @param name The name of the uniform
+   * @return The location of the uniform, or -1 if it is not active in this program
+   */
+  public int getUniformLocation(String name) {
+    Integer location = uniformLocations.get(name);
+    return (location == null) ? -1 : location;
+  }
+
+  /**
+   * Set an integer in the shader.
+   * @param gl The GL3 object
+   * @param location The location of the integer
+   * @param value The value of the integer
+   */
+  public void setInt(GL3 gl, int location, int value) {
+    gl.glUniform1i(location, value);
+  }
+
+  /**
+   * Set a float in the shader.
+   * @param gl The GL3 object
+   * @param location The location of the float
+   * @param value The value of the float
+   */
+  public void setFloat(GL3 gl, int location, float value) {
+    gl.glUniform1f(location, value);
+  }
+
+  /**
+   * Set a vec2 in the shader.
+   * @param gl The GL3 object
+   * @param location The location of the vec2
+   * @param f1 The first value of the vec2
+   * @param f2 The second value of the vec2
+   */
+  public void setFloat(GL3 gl, int location, float f1, float f2) {
+    gl.glUniform2f(location, f1, f2);
+  }
+
+  /**
+   * Set a 4x4 matrix in the shader.
+   * @param gl The GL3 object
+   * @param location The location of the matrix
+   * @param f The matrix as a column major float array
+   */
+  public void setFloatArray(GL3 gl, int location, float[] f) {
+    gl.glUniformMatrix4fv(location, 1, false, f, 0);
+  }
+
+  /**
+   * Set a 4x4 matrix in the shader. The matrix is copied straight into a reused
+   * direct buffer, so no array is allocated and no transpose is needed.
+   * @param gl The GL3 object
+   * @param location The location of the matrix
+   * @param m The matrix
+   */
+  public void setMat4(GL3 gl, int location, Mat4 m) {
+    m.writeTo(matrixBuffer, 0);
+    gl.glUniformMatrix4fv(location, 1, false, matrixBuffer);
+  }
+
+  /**
+   * Set a 3x3 matrix in the shader, without allocating.
+   * @param gl The GL3 object
+   * @param location The location of the matrix
+   * @param m The matrix
+   */
+  public void setMat3(GL3 gl, int location, Mat3 m) {
+    m.writeTo(matrix3Buffer, 0);
+    gl.glUniformMatrix3fv(location, 1, false, matrix3Buffer);
+  }
+
+  /**
+   * Set a Vec3 in the shader.
+   * @param gl The GL3 object
+   * @param location The location of the Vec3
+   * @param v The Vec3
+   */
+  public void setVec3(GL3 gl, int location, Vec3 v) {
+    gl.glUniform3f(location, v.x, v.y, v.z);
   }
 
   /**
@@ -61,7 +219,7 @@ public class Shader {
    * @param value The value of the integer
    */
   public void setInt(GL3 gl, String name, int value) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform1i(location, value);
   }
 
@@ -72,7 +230,7 @@ public class Shader {
    * @param value The value of the float
    */
   public void setFloat(GL3 gl, String name, float value) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform1f(location, value);
   }
 
@@ -84,7 +242,7 @@ public class Shader {
    * @param f2 The second value of the float array
    */
   public void setFloat(GL3 gl, String name, float f1, float f2) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform2f(location, f1, f2);
   }
 
@@ -97,7 +255,7 @@ public class Shader {
    * @param f3 The third value of the float array
    */
   public void setFloat(GL3 gl, String name, float f1, float f2, float f3) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform3f(location, f1, f2, f3);
   }
 
@@ -111,7 +269,7 @@ public class Shader {
    * @param f4 The fourth value of the float array
    */
   public void setFloat(GL3 gl, String name, float f1, float f2, float f3, float f4) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform4f(location, f1, f2, f3, f4);
   }
 
@@ -122,7 +280,7 @@ public class Shader {
    * @param f The float array
    */
   public void setFloatArray(GL3 gl, String name, float[] f) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniformMatrix4fv(location, 1, false, f, 0);
   }
 
@@ -133,10 +291,20 @@ public class Shader {
    * @param v The Vec3
    */
   public void setVec3(GL3 gl, String name, Vec3 v) {
-    int location = gl.glGetUniformLocation(ID, name);
+    int location = getUniformLocation(name);
     gl.glUniform3f(location, v.x, v.y, v.z);
   }
 
+  /**
+   * Delete the program object.
+   * Shaders obtained from ShaderLibrary should be released through the library instead.
+   * @param gl The GL3 object
+   */
+  public void dispose(GL3 gl) {
+    gl.glDeleteProgram(ID);
+    GLStateCache.invalidate();  // the name may be reused
+  }
+
   /**
    * Display the paths of the vertex and fragment shaders.
    */
@@ -147,37 +315,152 @@ public class Shader {
     System.out.println(fragmentShaderSource);
   }
 
+  /**
+   * Query every active uniform in the linked program and cache its location.
+   * Array uniforms are stored both as reported (e.g. "name[0]") and without the "[0]" suffix.
+   * @param gl The GL3 object
+   */
+  private void cacheUniformLocations(GL3 gl) {
+    uniformLocations.clear();
+    int[] count = new int[1];
+    int[] maxLength = new int[1];
+    gl.glGetProgramiv(ID, GL3.GL_ACTIVE_UNIFORMS, count, 0);
+    gl.glGetProgramiv(ID, GL3.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+
+    byte[] nameBytes = new byte[Math.max(maxLength[0], 1)];
+    int[] length = new int[1];
+    int[] size = new int[1];
+    int[] type = new int[1];
+    for (int i=0; i<count[0]; i++) {
+      gl.glGetActiveUniform(ID, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+      String name = new String(nameBytes, 0, length[0], StandardCharsets.US_ASCII);
+      int location = gl.glGetUniformLocation(ID, name);
+      if (location < 0) continue;  // uniforms in a uniform block have no location
+      uniformLocations.put(name, location);
+      if (name.endsWith("[0]")) {
+        uniformLocations.put(name.substring(0, name.length()-3), location);
+      }
+    }
+  }
+
+  /**
+   * Attach a uniform block to a fixed binding point, so that one buffer can feed every program.
+   * GLSL 330 has no layout(binding) qualifier, so this is done after linking.
+   * Programs without the block are left unchanged.
+   * @param gl The GL3 object
+   * @param blockName The name of the uniform block
+   * @param binding The binding point of the buffer
+   */
+  private void bindUniformBlock(GL3 gl, String blockName, int binding) {
+    int index = gl.glGetUniformBlockIndex(ID, blockName);
+    if (index != GL3.GL_INVALID_INDEX) {
+      gl.glUniformBlockBinding(ID, index, binding);
+    }
+  }
+
+  /**
+   * Set the texture unit of each sampler in the program. Sampler uniforms keep their value
+   * until the program is relinked, so this is not needed per frame.
+   * @param gl The GL3 object
+   */
+  private void bindSamplers(GL3 gl) {
+    for (int i=0; i<SAMPLER_NAMES.length; i++) {
+      int location = getUniformLocation(SAMPLER_NAMES[i]);
+      if (location >= 0) {
+        use(gl);
+        setInt(gl, location, SAMPLER_UNITS[i]);
+      }
+    }
+  }
+
   /**
    * Compiles the vertex and fragment shaders.
+   * Only GL3 calls are used, so any GL3 implementation can compile a shader, including RecordingGL3.
    * @param gl The GL3 object
    * @return The ID of the shader
    */
   private int compileAndLink(GL3 gl) {
-    gl.glBindVertexArray(1);  // hack to stop link error, since a VAO needs to be bound for shader validation
-    String[][] sources = new String[1][1];
-
-    sources[0] = new String[]{ vertexShaderSource };
-    ShaderCode vertexShaderCode = new ShaderCode(GL3.GL_VERTEX_SHADER, sources.length, sources);
-    boolean compiled = vertexShaderCode.compile(gl, System.err);
-    if (!compiled)
-      System.err.println("[error] Unable to compile vertex shader: " + sources);
-
-    sources[0] = new String[]{ fragmentShaderSource };
-    ShaderCode fragmentShaderCode = new ShaderCode(GL3.GL_FRAGMENT_SHADER, sources.length, sources);
-    compiled = fragmentShaderCode.compile(gl, System.err);
-    if (!compiled)
-      System.err.println("[error] Unable to compile fragment shader: " + sources);
-
-    ShaderProgram program = new ShaderProgram();
-    program.init(gl);
-    program.add(vertexShaderCode);
-    program.add(fragmentShaderCode);
-    program.link(gl, System.out);
-
-    if (!program.validateProgram(gl, System.out)) {
+    JfrEvents.ShaderCompileEvent event = new JfrEvents.ShaderCompileEvent();
+    event.begin();
+    GLStateCache.bindVertexArray(gl, 1);  // hack to stop link error, since a VAO needs to be bound for shader validation
+
+    int vertexShader = compile(gl, GL3.GL_VERTEX_SHADER, vertexShaderSource);
+    if (vertexShader == 0)
+      System.err.println("[error] Unable to compile vertex shader: " + vertexPath);
+
+    int fragmentShader = compile(gl, GL3.GL_FRAGMENT_SHADER, fragmentShaderSource);
+    if (fragmentShader == 0)
+      System.err.println("[error] Unable to compile fragment shader: " + fragmentPath);
+
+    int program = gl.glCreateProgram();
+    gl.glAttachShader(program, vertexShader);
+    gl.glAttachShader(program, fragmentShader);
+    gl.glLinkProgram(program);
+    boolean linked = getProgramStatus(gl, program, GL3.GL_LINK_STATUS);
+    if (linked) {
+      gl.glValidateProgram(program);
+      linked = getProgramStatus(gl, program, GL3.GL_VALIDATE_STATUS);
+    }
+    gl.glDetachShader(program, vertexShader);
+    gl.glDetachShader(program, fragmentShader);
+    gl.glDeleteShader(vertexShader);
+    gl.glDeleteShader(fragmentShader);
+
+    if (!linked) {
       System.err.println("[error] Unable to link program");
       this.display();
     }
-    return program.program();
+
+    event.vertexShader = vertexPath;
+    event.fragmentShader = fragmentPath;
+    event.defines = String.join(" ", defines);
+    event.linked = linked;
+    event.commit();
+    return program;
+  }
+
+  /**
+   * Compile a single shader stage, printing the info log if it fails.
+   * @param gl The GL3 object
+   * @param type The stage, e.g. GL_VERTEX_SHADER
+   * @param source The source of the stage
+   * @return The name of the shader object, or 0 if it did not compile
+   */
+  private static int compile(GL3 gl, int type, String source) {
+    int shader = gl.glCreateShader(type);
+    gl.glShaderSource(shader, 1, new String[]{ source }, null, 0);
+    gl.glCompileShader(shader);
+
+    int[] status = new int[1];
+    gl.glGetShaderiv(shader, GL3.GL_COMPILE_STATUS, status, 0);
+    if (status[0] != GL3.GL_FALSE) return shader;
+
+    int[] logLength = new int[1];
+    gl.glGetShaderiv(shader, GL3.GL_INFO_LOG_LENGTH, logLength, 0);
+    byte[] log = new byte[Math.max(logLength[0], 1)];
+    gl.glGetShaderInfoLog(shader, log.length, logLength, 0, log, 0);
+    System.err.println(new String(log, 0, logLength[0], StandardCharsets.US_ASCII));
+    gl.glDeleteShader(shader);
+    return 0;
+  }
+
+  /**
+   * Query the link or validate status of a program, printing the info log if it failed.
+   * @param gl The GL3 object
+   * @param program The program name
+   * @param pname GL_LINK_STATUS or GL_VALIDATE_STATUS
+   * @return True if the step succeeded
+   */
+  private static boolean getProgramStatus(GL3 gl, int program, int pname) {
+    int[] status = new int[1];
+    gl.glGetProgramiv(program, pname, status, 0);
+    if (status[0] != GL3.GL_FALSE) return true;
+
+    int[] logLength = new int[1];
+    gl.glGetProgramiv(program, GL3.GL_INFO_LOG_LENGTH, logLength, 0);
+    byte[] log = new byte[Math.max(logLength[0], 1)];
+    gl.glGetProgramInfoLog(program, log.length, logLength, 0, log, 0);
+    System.err.println(new String(log, 0, logLength[0], StandardCharsets.US_ASCII));
+    return false;
   }
 }
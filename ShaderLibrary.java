@@ -0,0 +1,88 @@
+import com.jogamp.opengl.GL3;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ShaderLibrary class to share compiled shader programs between models.
+ * Each (vertex path, fragment path, defines) combination is compiled once and reference counted.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class ShaderLibrary {
+    private static final Map<String, Entry> shaders = new HashMap<>();
+
+    /**
+     * A compiled shader and the number of users holding it.
+     */
+    private static class Entry {
+        private final Shader shader;
+        private int refCount;
+
+        private Entry(Shader shader) {
+            this.shader = shader;
+        }
+    }
+
+    private ShaderLibrary() {}
+
+    /**
+     * Get a shared shader for the given files, compiling it on first use.
+     * Every call must be matched by a call to release.
+     * @param gl The GL3 object
+     * @param vertexPath The path to the vertex shader
+     * @param fragmentPath The path to the fragment shader
+     * @param defines The names to define in both shader stages
+     * @return The shared shader
+     */
+    public static Shader get(GL3 gl, String vertexPath, String fragmentPath, String... defines) {
+        String key = makeKey(vertexPath, fragmentPath, defines);
+        Entry entry = shaders.get(key);
+        if (entry == null) {
+            entry = new Entry(new Shader(gl, vertexPath, fragmentPath, defines));
+            shaders.put(key, entry);
+        }
+        entry.refCount++;
+        return entry.shader;
+    }
+
+    /**
+     * Release a shader obtained from get. The program is deleted when its last user releases it.
+     * @param gl The GL3 object
+     * @param shader The shader to release
+     */
+    public static void release(GL3 gl, Shader shader) {
+        String key = makeKey(shader.getVertexPath(), shader.getFragmentPath(), shader.getDefines());
+        Entry entry = shaders.get(key);
+        if (entry == null || entry.shader != shader) {
+            System.err.println("[error] Releasing a shader not owned by the library: " + key);
+            return;
+        }
+        entry.refCount--;
+        if (entry.refCount == 0) {
+            entry.shader.dispose(gl);
+            shaders.remove(key);
+        }
+    }
+
+    /**
+     * Get the number of distinct programs currently held by the library.
+     * @return The number of programs
+     */
+    public static int size() {
+        return shaders.size();
+    }
+
+    /**
+     * Build the lookup key for a shader variant. Defines are sorted so their order does not matter.
+     * @param vertexPath The path to the vertex shader
+     * @param fragmentPath The path to the fragment shader
+     * @param defines The defines of the variant
+     * @return The key
+     */
+    private static String makeKey(String vertexPath, String fragmentPath, String[] defines) {
+        String[] sorted = defines.clone();
+        Arrays.sort(sorted);
+        return vertexPath + "|" + fragmentPath + "|" + String.join(",", sorted);
+    }
+}
@@ -2,7 +2,6 @@ import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.util.texture.Texture;
-import gmaths.Mat4;
 
 import java.nio.FloatBuffer;
 import java.util.Arrays;
@@ -20,6 +19,7 @@ public class Skybox {
     private final Texture animatedTexture;
     private final int[] vertexArrayId = new int[1];
     private final int[] vertexBufferId = new int[1];
+    private final int offsetLocation;
     float[] skyboxVertices = {
             -1.0f,  1.0f, -1.0f,
             -1.0f, -1.0f, -1.0f,
@@ -72,8 +72,9 @@ public class Skybox {
      */
     public Skybox(GL3 gl, Camera camera, TextureLibrary textures) {
         this.camera = camera;
-        this.shader = new Shader(gl, "assets/shaders/vs_skybox.txt",
+        this.shader = ShaderLibrary.get(gl, "assets/shaders/vs_skybox.txt",
                 "assets/shaders/fs_skybox.txt");
+        this.offsetLocation = this.shader.getUniformLocation("offset");
 
         List<String> skyboxFaces = Arrays.asList(
                 "assets/textures/skybox/right.png",
@@ -96,37 +97,21 @@ public class Skybox {
      * @param gl The GL3 object
      */
     public void render(GL3 gl) {
-        gl.glDepthFunc(GL.GL_LEQUAL);
-        this.shader.use(gl);
+        GLStateCache.depthFunc(gl, GL.GL_LEQUAL);
+        this.shader.use(gl);  // the view and projection come from the Camera block
 
-        // Remove the translation components
-        Mat4 view = camera.getViewMatrix();
-        view.set(0, 3, 0.0f);
-        view.set(1, 3, 0.0f);
-        view.set(2, 3, 0.0f);
+        GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
 
-        Mat4 perspective = camera.getPerspectiveMatrix();
+        GLStateCache.bindTexture(gl, 0, GL.GL_TEXTURE_CUBE_MAP, textureId);
 
-        this.shader.setFloatArray(gl, "view", view.toFloatArrayForGLSL());
-        this.shader.setFloatArray(gl, "projection", perspective.toFloatArrayForGLSL());
-
-        gl.glBindVertexArray(vertexArrayId[0]);
-
-        this.shader.setInt(gl, "skybox", 0);
-        gl.glActiveTexture(GL.GL_TEXTURE0);
-        gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, textureId);
-
-        this.shader.setInt(gl, "animatedTexture", 1);
-        gl.glActiveTexture(GL.GL_TEXTURE1);
-        animatedTexture.bind(gl);
+        GLStateCache.bindTexture(gl, 1, animatedTexture);
 
         float offsetX = (float) (Math.sin(Utilities.getCurrentTime() * 0.1) * 0.1);
         float offsetY = (float) (Math.sin(Utilities.getCurrentTime() * 0.1) * 0.1);
-        this.shader.setFloat(gl, "offset", offsetX, offsetY);
+        this.shader.setFloat(gl, offsetLocation, offsetX, offsetY);
 
         gl.glDrawArrays(GL.GL_TRIANGLES, 0, 36);
-        gl.glBindVertexArray(0);
-        gl.glDepthFunc(GL.GL_LESS);
+        GLStateCache.depthFunc(gl, GL.GL_LESS);
     }
 
     /**
@@ -136,6 +121,8 @@ public class Skybox {
     public void dispose(GL3 gl) {
         gl.glDeleteBuffers(1, vertexBufferId, 0);
         gl.glDeleteVertexArrays(1, vertexArrayId, 0);
+        GLStateCache.invalidate();  // the names may be reused
+        ShaderLibrary.release(gl, this.shader);
     }
 
     /**
@@ -144,7 +131,7 @@ public class Skybox {
      */
     private void fillBuffers(GL3 gl) {
         gl.glGenVertexArrays(1, vertexArrayId, 0);
-        gl.glBindVertexArray(vertexArrayId[0]);
+        GLStateCache.bindVertexArray(gl, vertexArrayId[0]);
 
         gl.glGenBuffers(1, vertexBufferId, 0);
         gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBufferId[0]);
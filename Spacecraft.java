@@ -8,6 +8,10 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * Main class of the Spacecraft assignment
@@ -18,8 +22,13 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
     private static final int WIDTH = 1920;
     private static final int HEIGHT = 1080;
     private static final Dimension DIMENSION = new Dimension(WIDTH, HEIGHT);
+    private static final int OVERLAY_REFRESH_MILLIS = 500;
+    private static final String FRAME_TIMES_FILE = "frame_times.csv";
+    private static final String TRACE_FILE = "frame_trace.json";
     private final FPSAnimator animator;
     private GLCanvas canvas;
+    private JTextArea frameTimesOverlay;
+    private Timer frameTimesTimer;
     private Spacecraft_EventListener glEventListener;
 
     /**
@@ -34,6 +43,7 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
         addWindowListener(new windowHandler());
 
         this.makeJPanelAndComponents();
+        this.makeFrameTimesOverlay();
 
         this.animator = new FPSAnimator(this.canvas, 60);
         this.animator.start();
@@ -48,6 +58,7 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
         JPanel movingRobotPanel = new JPanel();
         JPanel ceilingLightPanel = new JPanel();
         JPanel spotlightPanel = new JPanel();
+        JPanel profilerPanel = new JPanel();
 
         // Dropdowns for the state of each robot.
         JPanel dropdownPanel = new JPanel();
@@ -98,8 +109,36 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
         spotlightPanel.add(label);
         spotlightPanel.add(slider);
 
+        // Frame time overlay and export
+        profilerPanel.setLayout(new BoxLayout(profilerPanel, BoxLayout.Y_AXIS));
+        JCheckBox checkBox = new JCheckBox("Show Frame Times");
+        checkBox.setName("Show Frame Times");
+        checkBox.addActionListener(this);
+        JButton button = new JButton("Export Frame Times");
+        button.setName("Export Frame Times");
+        button.addActionListener(this);
+
+        profilerPanel.add(checkBox);
+        profilerPanel.add(button);
+
+        checkBox = new JCheckBox("Track Allocations");
+        checkBox.setName("Track Allocations");
+        checkBox.addActionListener(this);
+        profilerPanel.add(checkBox);
+
+        checkBox = new JCheckBox("Record Trace", FrameProfiler.isTracing());
+        checkBox.setName("Record Trace");
+        checkBox.addActionListener(this);
+        button = new JButton("Export Trace");
+        button.setName("Export Trace");
+        button.addActionListener(this);
+
+        profilerPanel.add(checkBox);
+        profilerPanel.add(button);
+
         dropdownPanel.add(dancingRobotPanel);
         dropdownPanel.add(movingRobotPanel);
+        dropdownPanel.add(profilerPanel);
         sliderPanel.add(ceilingLightPanel);
         sliderPanel.add(spotlightPanel);
 
@@ -108,6 +147,69 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
         this.add(mainPanel, BorderLayout.SOUTH);
     }
 
+    /**
+     * Helper method to make the frame time overlay, a panel beside the canvas that shows the
+     * FrameProfiler summary. The canvas is heavyweight, so the overlay cannot be drawn over it.
+     */
+    private void makeFrameTimesOverlay() {
+        this.frameTimesOverlay = new JTextArea();
+        this.frameTimesOverlay.setEditable(false);
+        this.frameTimesOverlay.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        this.frameTimesOverlay.setVisible(false);
+        getContentPane().add(this.frameTimesOverlay, BorderLayout.EAST);
+
+        this.frameTimesTimer = new Timer(OVERLAY_REFRESH_MILLIS,
+                e -> this.frameTimesOverlay.setText(formatFrameTimes()));
+    }
+
+    /**
+     * Get the text of the frame time overlay: the FrameProfiler summary and texture residency.
+     * @return The text
+     */
+    private String formatFrameTimes() {
+        TextureLibrary textures = this.glEventListener.getTextures();
+        return FrameProfiler.formatSummary() + (textures == null ? "" : textures.formatResidency());
+    }
+
+    /**
+     * Show or hide the frame time overlay.
+     * @param show Whether to show the overlay
+     */
+    private void showFrameTimes(boolean show) {
+        if (show) {
+            this.frameTimesOverlay.setText(formatFrameTimes());
+            this.frameTimesTimer.start();
+        } else {
+            this.frameTimesTimer.stop();
+        }
+        this.frameTimesOverlay.setVisible(show);
+        getContentPane().revalidate();
+    }
+
+    /**
+     * Export the frame time summary as CSV to FRAME_TIMES_FILE in the working directory.
+     */
+    private void exportFrameTimes() {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(FRAME_TIMES_FILE))) {
+            FrameProfiler.writeCsv(writer);
+            System.out.println("Frame times written to " + FRAME_TIMES_FILE);
+        } catch (IOException e) {
+            System.err.println("[error] Unable to write " + FRAME_TIMES_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Export the traced events in the Chrome trace format to TRACE_FILE in the working directory.
+     */
+    private static void exportTrace() {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(TRACE_FILE))) {
+            FrameProfiler.writeTrace(writer);
+            System.out.println("Frame trace written to " + TRACE_FILE);
+        } catch (IOException e) {
+            System.err.println("[error] Unable to write " + TRACE_FILE + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Set up the canvas.
      */
@@ -123,12 +225,31 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
     }
 
     /**
-     * Dropdown (combobox) event handler.
+     * Dropdown (combobox), checkbox and button event handler.
      * @param e the event to be processed
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        if (e.getSource() instanceof JComboBox) {
+        if (e.getSource() instanceof JCheckBox) {
+            JCheckBox sourceCheckBox = (JCheckBox) e.getSource();
+            if (sourceCheckBox.getName().equalsIgnoreCase("Show Frame Times")) {
+                this.showFrameTimes(sourceCheckBox.isSelected());
+            } else if (sourceCheckBox.getName().equalsIgnoreCase("Track Allocations")) {
+                if (!FrameProfiler.setAllocationTracking(sourceCheckBox.isSelected())) {
+                    System.err.println("[error] Allocation tracking is not supported by this JVM");
+                    sourceCheckBox.setSelected(false);
+                }
+            } else if (sourceCheckBox.getName().equalsIgnoreCase("Record Trace")) {
+                FrameProfiler.setTracing(sourceCheckBox.isSelected());
+            }
+        } else if (e.getSource() instanceof JButton) {
+            JButton sourceButton = (JButton) e.getSource();
+            if (sourceButton.getName().equalsIgnoreCase("Export Frame Times")) {
+                this.exportFrameTimes();
+            } else if (sourceButton.getName().equalsIgnoreCase("Export Trace")) {
+                exportTrace();
+            }
+        } else if (e.getSource() instanceof JComboBox) {
             JComboBox<?> sourceComboBox = (JComboBox<?>) e.getSource();
             if (sourceComboBox.getName().equalsIgnoreCase("Dancing Robot Options")) {
                 String selectedItem = (String) sourceComboBox.getSelectedItem();
@@ -196,6 +317,13 @@ public class Spacecraft extends JFrame implements ActionListener, ChangeListener
      * @param args keyboard arguments
      */
     public static void main(String[] args) {
+        // -Dspacecraft.trace=true records a trace from startup and writes it on exit
+        if (Boolean.getBoolean("spacecraft.trace")) {
+            FrameProfiler.setTracing(true);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (FrameProfiler.isTracing()) exportTrace();
+            }));
+        }
         Spacecraft frame = new Spacecraft("Spacecraft Assignment");
         frame.getContentPane().setPreferredSize(DIMENSION);
         frame.pack();
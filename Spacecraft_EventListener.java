@@ -14,16 +14,37 @@ import java.util.List;
  * With reference to Dr. Steve Maddock's code.
  */
 public class Spacecraft_EventListener implements GLEventListener {
+    private static final int PROFILE_UPDATE = FrameProfiler.scope("update", JfrEvents.SceneUpdateEvent::new);
+    private static final int PROFILE_LIGHTS = renderScope("lights");
+    private static final int PROFILE_ROOM = renderScope("room");
+    private static final int PROFILE_GLOBE = renderScope("globe");
+    private static final int PROFILE_MOVING_ROBOT = renderScope("moving robot");
+    private static final int PROFILE_DANCING_ROBOT = renderScope("dancing robot");
+    private static final int PROFILE_DRAW = renderScope("draw");
+    private static final int PROFILE_SKYBOX = renderScope("skybox");
+
     private final Camera camera;
     private TextureLibrary textures;
     private Room room;
     private Globe globe;
     private Skybox skybox;
     private Light[] lights;
+    private LightBuffer lightBuffer;
+    private CameraBuffer cameraBuffer;
     private DancingRobot dancingRobot;
     private MovingRobot movingRobot;
+    private final RenderQueue renderQueue = new RenderQueue();
     private boolean movingRobotTraversing = true;
 
+    /**
+     * Register a profiler scope for the rendering of one object, emitting a JFR render event.
+     * @param name The name of the object
+     * @return The scope ID
+     */
+    private static int renderScope(String name) {
+        return FrameProfiler.scope(name, () -> new JfrEvents.RenderEvent(name));
+    }
+
     /**
      * Create a new GL Event Listener for the Spacecraft assignment.
      * @param camera camera to view the scene
@@ -92,7 +113,10 @@ public class Spacecraft_EventListener implements GLEventListener {
         for (Light light : this.lights) {
             light.dispose(gl);
         }
+        this.lightBuffer.dispose(gl);
+        this.cameraBuffer.dispose(gl);
         textures.destroy(gl);
+        TextureUploader.dispose(gl);
         this.globe.dispose(gl);
         this.movingRobot.dispose(gl);
         this.dancingRobot.dispose(gl);
@@ -119,11 +143,14 @@ public class Spacecraft_EventListener implements GLEventListener {
         this.lights[2] = new Spotlight(gl);
         this.lights[2].setCamera(this.camera);
         this.lights[2].setPosition(new Vec3(6.25f, 2, 2f));
+        this.lightBuffer = new LightBuffer(gl);
+        this.cameraBuffer = new CameraBuffer(gl);
 
         this.room = new Room(gl, this.camera, this.lights, this.textures);
         this.globe = new Globe(gl, this.camera, this.lights, this.textures);
         this.movingRobot = new MovingRobot(gl, this.camera, this.lights, this.textures);
         this.dancingRobot = new DancingRobot(gl, this.camera, this.lights, this.textures);
+        this.textures.prefetch();  // decode every texture in parallel now, rather than on first bind
     }
 
     /**
@@ -161,30 +188,66 @@ public class Spacecraft_EventListener implements GLEventListener {
         this.lights[2].setBrightness(adjustedBrightness);
     }
 
+    /**
+     * Get the texture library of the scene, e.g. to read its residency counters.
+     * @return The texture library, or null before the scene is initialised
+     */
+    public TextureLibrary getTextures() {
+        return this.textures;
+    }
+
     /**
      * Helper method to render the scene.
      * @param gl GL3
      */
     private void render(GL3 gl) {
+        FrameProfiler.beginFrame();
+        GLStateCache.beginFrame();
+        this.textures.update(gl);
+        TextureUploader.update(gl);
         gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
-        this.lights[0].render(gl);
-        this.lights[1].render(gl);
-
-        this.room.render(gl);
 
+        FrameProfiler.begin(PROFILE_UPDATE);
         this.globe.updateGlobeSpin();
-        this.globe.render(gl);
-
         if (this.movingRobotTraversing) {
             this.movingRobot.updateSpotlightSpin();
             this.movingRobot.moveRobot();
         }
-        this.movingRobot.render(gl);
-
         this.dancingRobot.animate(this.movingRobot.getPosition());
-        this.dancingRobot.render(gl);
+        FrameProfiler.end(PROFILE_UPDATE);
+
+        FrameProfiler.begin(PROFILE_LIGHTS);
+        this.cameraBuffer.update(gl, this.camera);
+        this.lights[0].render(gl);
+        this.lights[1].render(gl);
+        FrameProfiler.end(PROFILE_LIGHTS);
+
+        // each object applies its scene graph changes (the "scene graph" scope) and queues its draws
+        FrameProfiler.begin(PROFILE_ROOM);
+        this.room.render(this.renderQueue);
+        FrameProfiler.end(PROFILE_ROOM);
+
+        FrameProfiler.begin(PROFILE_GLOBE);
+        this.globe.render(this.renderQueue);
+        FrameProfiler.end(PROFILE_GLOBE);
+
+        FrameProfiler.begin(PROFILE_MOVING_ROBOT);
+        this.movingRobot.render(this.renderQueue);
+        FrameProfiler.end(PROFILE_MOVING_ROBOT);
+
+        FrameProfiler.begin(PROFILE_DANCING_ROBOT);
+        this.dancingRobot.render(this.renderQueue);
+        FrameProfiler.end(PROFILE_DANCING_ROBOT);
+
+        FrameProfiler.begin(PROFILE_DRAW);
+        this.lightBuffer.update(gl, this.lights);  // after the robots have moved the spotlight
+        this.renderQueue.flush(gl);
+        FrameProfiler.end(PROFILE_DRAW);
 
+        FrameProfiler.begin(PROFILE_SKYBOX);
         this.skybox.render(gl);
+        FrameProfiler.end(PROFILE_SKYBOX);
+        FrameProfiler.endFrame();
     }
 
 }
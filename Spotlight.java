@@ -2,6 +2,8 @@ import com.jogamp.opengl.GL3;
 import gmaths.Mat4;
 import gmaths.Vec3;
 
+import java.nio.FloatBuffer;
+
 /**
  * Spotlight class to handle a spotlight in the scene.
  * @author Ethan Watts (eawatts1@sheffield.ac.uk)
@@ -24,6 +26,8 @@ public class Spotlight extends Light {
         this.cutoff = 12.5f;
         this.outerCutoff = 17.5f;
         this.direction = new Vec3(0, 0f, -1f);
+        this.linear = 0.07f;
+        this.quadratic = 0.017f;
     }
 
     /**
@@ -68,19 +72,29 @@ public class Spotlight extends Light {
         super.getMaterial().setSpecular(brightness, brightness, brightness);
     }
 
+    /**
+     * Write the spotlight as a std140 Light struct, with its direction and the cosines of its cutoffs.
+     * @param fb The buffer to write to
+     * @param offset The index of the first float to write
+     */
+    @Override
+    void writeTo(FloatBuffer fb, int offset) {
+        super.writeTo(fb, offset);
+        fb.put(offset+3, (float) Math.cos(Math.toRadians(this.cutoff)));
+        putVec3(fb, offset+4, this.direction, (float) Math.cos(Math.toRadians(this.outerCutoff)));
+    }
+
     /**
      * Set the direction and position of the spotlight.
      * @param m The matrix to set the direction and position from
      */
     public void setDirectionAndPosition(Mat4 m) {
-        float[] xyz = m.getColumn(3);
-        Vec3 position = new Vec3(xyz[0], xyz[1], xyz[2]);
-        super.setPosition(position);
+        super.setPosition(m.get(0, 3), m.get(1, 3), m.get(2, 3));
 
         float yRotationRadians = (float) Math.atan2(m.get(0, 2), m.get(2, 2));
         float x = (float) Math.sin(yRotationRadians);
         float z = (float) Math.cos(yRotationRadians);
 
-        this.setDirection(new Vec3(x, 0, z));
+        this.direction.set(x, 0, z);
     }
 }
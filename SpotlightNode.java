@@ -1,5 +1,3 @@
-import gmaths.Mat4;
-
 /**
  * SpotlightNode class to handle a spotlight node in the scene graph.
  * @author Ethan Watts (eawatts1@sheffield.ac.uk)
@@ -21,12 +19,10 @@ public class SpotlightNode extends SGNode {
   }
 
   /**
-   * Update the spotlight node with the given transformation matrix.
-   * @param t The transformation matrix to use
+   * Move the spotlight to follow the node. Only called when the world transform has changed.
    */
   @Override
-  protected void update(Mat4 t) {
-    super.update(t);
+  protected void worldTransformChanged() {
     spotlight.setDirectionAndPosition(worldTransform);
   }
 }
@@ -0,0 +1,281 @@
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.texture.TextureData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TextureCache class to keep decoded, mipmapped textures on disk, so that later runs skip
+ * decoding the image files and generating mipmaps.
+ * A texture is stored in one file per source image, named by the hash of the image file: a
+ * header followed by every mip level, tightly packed. Files are memory-mapped when loaded, and
+ * each level can be passed straight to glTexImage2D. The mipmaps are built on the CPU by
+ * averaging 2x2 blocks, like glGenerateMipmap does.
+ * The directory is texture_cache in the working directory; -Dspacecraft.textureCache=dir
+ * changes it, and an empty value turns the cache off. The files can be deleted at any time.
+ * All methods may be called from any thread.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class TextureCache {
+    private static final int MAGIC = 0x53435458;  // "SCTX"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 9;  // magic to level count, before the level table
+    private static final int LEVEL_INTS = 2;  // width and height of each level
+    private static final String DIRECTORY = System.getProperty("spacecraft.textureCache", "texture_cache");
+
+    /**
+     * The texel data of a texture, with its mip levels.
+     */
+    public static final class Levels {
+        private final int internalFormat;
+        private final int pixelFormat;
+        private final int pixelType;
+        private final boolean mustFlipVertically;
+        private final int[] widths;
+        private final int[] heights;
+        private final ByteBuffer[] data;
+
+        private Levels(int internalFormat, int pixelFormat, int pixelType, boolean mustFlipVertically,
+                       int[] widths, int[] heights, ByteBuffer[] data) {
+            this.internalFormat = internalFormat;
+            this.pixelFormat = pixelFormat;
+            this.pixelType = pixelType;
+            this.mustFlipVertically = mustFlipVertically;
+            this.widths = widths;
+            this.heights = heights;
+            this.data = data;
+        }
+
+        public int getInternalFormat() { return internalFormat; }
+        public int getPixelFormat() { return pixelFormat; }
+        public int getPixelType() { return pixelType; }
+        public boolean getMustFlipVertically() { return mustFlipVertically; }
+        public int getLevelCount() { return data.length; }
+        public int getWidth(int level) { return widths[level]; }
+        public int getHeight(int level) { return heights[level]; }
+
+        /**
+         * Get the texels of a level, tightly packed, so they must be uploaded with an unpack
+         * alignment of 1.
+         * @param level The mip level
+         * @return The texels, from position 0
+         */
+        public ByteBuffer getData(int level) { return data[level].duplicate(); }
+    }
+
+    private TextureCache() {}
+
+    /**
+     * Check whether the cache is turned on.
+     * @return False if spacecraft.textureCache is set to an empty value
+     */
+    public static boolean isEnabled() {
+        return !DIRECTORY.isEmpty();
+    }
+
+    /**
+     * Load a texture from the cache.
+     * @param hash The hash of the source image file
+     * @param mipmap Whether every mip level is needed, rather than only the first
+     * @return The texture, or null if it is not cached, or not with all the levels needed
+     */
+    public static Levels load(String hash, boolean mipmap) {
+        if (!isEnabled()) return null;
+        Path path = pathOf(hash);
+        if (!Files.isRegularFile(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            if (file.remaining() < HEADER_INTS * Integer.BYTES
+                    || file.getInt() != MAGIC || file.getInt() != VERSION) return null;
+            int internalFormat = file.getInt();
+            int pixelFormat = file.getInt();
+            int pixelType = file.getInt();
+            boolean flip = file.getInt() != 0;
+            int width = file.getInt();
+            int height = file.getInt();
+            int levelCount = file.getInt();
+            if (levelCount < 1 || (mipmap && levelCount != levelCount(width, height))) return null;
+            int components = components(pixelFormat);
+            if (components == 0) return null;
+
+            int[] widths = new int[levelCount];
+            int[] heights = new int[levelCount];
+            for (int i=0; i<levelCount; i++) {
+                widths[i] = file.getInt();
+                heights[i] = file.getInt();
+            }
+            ByteBuffer[] data = new ByteBuffer[levelCount];
+            int offset = file.position();
+            for (int i=0; i<levelCount; i++) {
+                int length = widths[i] * heights[i] * components;
+                if (offset + length > file.limit()) return null;  // truncated
+                data[i] = file.slice(offset, length);
+                offset += length;
+            }
+            return new Levels(internalFormat, pixelFormat, pixelType, flip, widths, heights, data);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[error] Could not read cached texture " + path + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Build the levels of a texture from decoded image data.
+     * @param data The decoded image
+     * @param mipmap Whether to build every mip level, rather than only the first
+     * @return The texture, or null if the data is in a format that is not supported: only
+     *         uncompressed single images of unsigned bytes with 1, 3 or 4 components are
+     */
+    public static Levels build(TextureData data, boolean mipmap) {
+        int components = components(data.getPixelFormat());
+        if (components == 0 || data.getPixelType() != GL3.GL_UNSIGNED_BYTE || data.isDataCompressed()
+                || data.getMipmapData() != null || data.getBuffer() == null) {
+            return null;
+        }
+        int width = data.getWidth();
+        int height = data.getHeight();
+        int rowPixels = data.getRowLength() > 0 ? data.getRowLength() : width;
+        int alignment = Math.max(1, data.getAlignment());
+        int stride = (rowPixels * components + alignment - 1) / alignment * alignment;
+
+        int levelCount = mipmap ? levelCount(width, height) : 1;
+        int[] widths = new int[levelCount];
+        int[] heights = new int[levelCount];
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+
+        // the first level is the image without its row padding
+        ByteBuffer source = ((ByteBuffer) data.getBuffer()).duplicate();
+        int start = source.position();
+        byte[] pixels = new byte[width * height * components];
+        for (int y=0; y<height; y++) {
+            source.position(start + y * stride);
+            source.get(pixels, y * width * components, width * components);
+        }
+        widths[0] = width;
+        heights[0] = height;
+        levels[0] = ByteBuffer.wrap(pixels);
+
+        for (int i=1; i<levelCount; i++) {
+            widths[i] = Math.max(1, widths[i-1] / 2);
+            heights[i] = Math.max(1, heights[i-1] / 2);
+            pixels = halve(pixels, widths[i-1], heights[i-1], widths[i], heights[i], components);
+            levels[i] = ByteBuffer.wrap(pixels);
+        }
+        return new Levels(data.getInternalFormat(), data.getPixelFormat(), data.getPixelType(),
+                data.getMustFlipVertically(), widths, heights, levels);
+    }
+
+    /**
+     * Write a texture to the cache. The file is written under a temporary name and then
+     * renamed, so a run never reads a partly written file.
+     * @param hash The hash of the source image file
+     * @param levels The texture
+     */
+    public static void store(String hash, Levels levels) {
+        if (!isEnabled()) return;
+        int levelCount = levels.getLevelCount();
+        ByteBuffer header = ByteBuffer.allocate((HEADER_INTS + LEVEL_INTS * levelCount) * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putInt(levels.internalFormat).putInt(levels.pixelFormat).putInt(levels.pixelType)
+                .putInt(levels.mustFlipVertically ? 1 : 0)
+                .putInt(levels.widths[0]).putInt(levels.heights[0]).putInt(levelCount);
+        for (int i=0; i<levelCount; i++) {
+            header.putInt(levels.widths[i]).putInt(levels.heights[i]);
+        }
+        header.flip();
+
+        Path path = pathOf(hash);
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), hash, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                write(channel, header);
+                for (int i=0; i<levelCount; i++) {
+                    write(channel, levels.getData(i));
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[error] Could not cache texture " + path + ": " + e);
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // nothing more to do
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static Path pathOf(String hash) {
+        return new File(DIRECTORY, hash + ".tex").toPath();
+    }
+
+    /**
+     * Get the number of levels in a full mip chain, down to 1x1.
+     * @param width The width of the first level
+     * @param height The height of the first level
+     * @return The number of levels
+     */
+    private static int levelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+    }
+
+    /**
+     * Get the number of bytes per texel of a pixel format.
+     * @param pixelFormat The GL pixel format
+     * @return The number of components, or 0 if the format is not supported
+     */
+    static int components(int pixelFormat) {
+        switch (pixelFormat) {
+            case GL3.GL_RED: return 1;
+            case GL3.GL_RGB: case GL3.GL_BGR: return 3;
+            case GL3.GL_RGBA: case GL3.GL_BGRA: return 4;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Make the next mip level by averaging blocks of 2x2 texels, or 2x1 or 1x2 once one side of
+     * the image is 1 texel long.
+     * @param pixels The level, tightly packed
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param newWidth The width of the next level
+     * @param newHeight The height of the next level
+     * @param components The bytes per texel
+     * @return The next level, tightly packed
+     */
+    private static byte[] halve(byte[] pixels, int width, int height, int newWidth, int newHeight, int components) {
+        byte[] result = new byte[newWidth * newHeight * components];
+        for (int y=0; y<newHeight; y++) {
+            int y0 = Math.min(2*y, height-1) * width;
+            int y1 = Math.min(2*y + 1, height-1) * width;
+            for (int x=0; x<newWidth; x++) {
+                int x0 = Math.min(2*x, width-1);
+                int x1 = Math.min(2*x + 1, width-1);
+                for (int c=0; c<components; c++) {
+                    int sum = (pixels[(y0 + x0) * components + c] & 0xFF)
+                            + (pixels[(y0 + x1) * components + c] & 0xFF)
+                            + (pixels[(y1 + x0) * components + c] & 0xFF)
+                            + (pixels[(y1 + x1) * components + c] & 0xFF);
+                    result[(y * newWidth + x) * components + c] = (byte) ((sum + 2) / 4);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -1,26 +1,165 @@
 import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.util.texture.Texture;
 import com.jogamp.opengl.util.texture.TextureData;
 import com.jogamp.opengl.util.texture.TextureIO;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TextureLibrary class to handle the textures in the scene.
+ * Textures are loaded lazily and kept within a GPU memory budget. get returns a texture at
+ * once, holding a 1x1 grey placeholder image. The first time it is bound, through GLStateCache,
+ * its image is decoded on a pool of worker threads, and update uploads it at the start of a
+ * later frame. When the resident textures exceed the budget, the least recently bound are
+ * evicted back to the placeholder, and are loaded again if they are bound again. Textures keep
+ * their GL name throughout, so models can hold on to them. prefetch starts loading every texture
+ * added so far without waiting for a bind, e.g. at startup, for as many as fit in the budget.
+ * Textures are shared: names of the same file that repeat the same way use one GL texture. A file
+ * is hashed on the decoder threads before it is decoded, and if it holds the same bytes as one
+ * already hashed, with the same wrap mode, it is not decoded at all: binding its texture binds the
+ * other's instead, so each image is decoded once.
+ * Decoded images and their mipmaps are kept on disk by TextureCache, so later loads skip
+ * decoding and generating mipmaps. Their larger mip levels are streamed in by TextureUploader,
+ * smallest first, and the texture samples from the smallest level until the larger arrive.
  * @author Dr. Steve Maddock
  */
 public class TextureLibrary {
 
-  private Map<String, Texture> textures;
+  private static final int PROFILE_SCOPE = FrameProfiler.scope("texture load");
+  private static final int DECODE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final long UNLIMITED = Long.MAX_VALUE;
+  // -Dspacecraft.textureBudget=<megabytes> sets the budget of new libraries
+  private static final long DEFAULT_BUDGET = Long.getLong("spacecraft.textureBudget", 0) > 0
+          ? Long.getLong("spacecraft.textureBudget") * BYTES_PER_MEGABYTE : UNLIMITED;
+  private static final int PLACEHOLDER_BYTES = 4;  // one RGBA texel
+  private static final ByteBuffer PLACEHOLDER_TEXEL = ByteBuffer.allocateDirect(PLACEHOLDER_BYTES)
+          .put(new byte[]{ (byte) 128, (byte) 128, (byte) 128, (byte) 255 }).flip();
+  private static final int DEFAULT_MAX_LEVEL = 1000;  // GL's initial GL_TEXTURE_MAX_LEVEL
+  private static final int DIRECT_UPLOAD_BYTES = 64 * 1024;  // mip levels this small are not streamed
+  private static ExecutorService decoder;  // shared by every library, created on first use
+  private static boolean placeholders = false;
+  private static final Map<Texture, Shared> residents = new IdentityHashMap<>();  // every texture handed out
+
+  private final Map<String, String> keys = new HashMap<>();  // name to content key
+  private final Map<String, Shared> shared = new HashMap<>();  // file and wrap mode to texture
+  private final Map<String, Shared> contents = new HashMap<>();  // content hash and wrap mode to texture
+  private final List<Shared> entries = new ArrayList<>();  // the textures, to loop over without allocating
+  private final CompletionService<Decoded> decoded;
+  private long budget = DEFAULT_BUDGET;
+  private long residentBytes;
+  private long frame;
+  private long hits, misses, evictions;
+
+  /**
+   * A texture shared by every name whose file has the same content.
+   */
+  private class Shared {
+    private final String key;
+    private String hash;  // of the file, once hashed
+    private final String filename;
+    private final boolean repeating;
+    private List<Texture> aliases;  // the textures of files found to hold the same image, or null
+    private Texture texture;  // holds the placeholder image until the file's image is uploaded
+    private Future<Decoded> pending;  // the hash or decode, once requested
+    private Decoded ready;  // the decoded image, waiting to be uploaded
+    private boolean requested;  // bound while not resident
+    private boolean resident;
+    private boolean failed;  // the image could not be loaded, so is not requested again
+    private long bytes;  // estimated GPU memory of the image while resident
+    private int levelCount = 1;
+    private long lastUse = -1;  // the frame it was last bound in
+
+    private Shared(String key, String filename, boolean repeating) {
+      this.key = key;
+      this.filename = filename;
+      this.repeating = repeating;
+    }
+
+    private void use() {
+      lastUse = frame;
+      if (resident) {
+        hits++;
+      } else {
+        misses++;
+        requested = !failed;
+      }
+    }
+  }
+
+  /**
+   * A decoded image, waiting to be uploaded on the GL thread.
+   */
+  private static class Decoded {
+    private final String key;
+    private String hash;  // of the file, or null if it could not be read; hashed by decode if not known
+    private final String filename;
+    private final int face;  // the cube map face, for skybox images
+    private boolean decoded;  // false if only the file has been hashed
+    private TextureCache.Levels levels;  // the texels, if cached or in a format the cache supports
+    private TextureData data;  // otherwise the decoded image, or null if it could not be decoded
+
+    private Decoded(String key, String hash, String filename, int face) {
+      this.key = key;
+      this.hash = hash;
+      this.filename = filename;
+      this.face = face;
+    }
+  }
 
   /**
    * Create a new texture library.
    */
   public TextureLibrary() {
-    textures = new HashMap<>();
+    decoded = new ExecutorCompletionService<>(decoder());
+  }
+
+    /**
+     * Create empty 1x1 textures instead of reading image files, e.g. when running the scene
+     * headlessly on RecordingGL3, where TextureIO has no context to decode into.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     * @param enabled Whether to use placeholder textures
+     */
+  static void setPlaceholders(boolean enabled) {
+    placeholders = enabled;
+  }
+
+    /**
+     * Get the pool that decodes images, creating it the first time.
+     * The threads are daemons, so an unfinished decode does not stop the program exiting.
+     * @return The pool
+     */
+  private static synchronized ExecutorService decoder() {
+    if (decoder == null) {
+      AtomicInteger count = new AtomicInteger();
+      decoder = Executors.newFixedThreadPool(DECODE_THREADS, r -> {
+        Thread thread = new Thread(r, "texture-decoder-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return decoder;
   }
 
     /**
@@ -34,7 +173,10 @@ public class TextureLibrary {
   }
 
     /**
-     * Add a texture to the library.
+     * Add a texture to the library. The GL texture is created with a placeholder image; the
+     * file is loaded when the texture is first bound. Adding a name that has already been added
+     * does nothing, and a file that has already been added shares its texture. The file is not
+     * read here, so that adding is cheap on the GL thread.
      * @author Ethan Watts (eawatts1@sheffield.ac.uk)
      * @param gl GL3
      * @param name The name of the texture
@@ -42,70 +184,543 @@ public class TextureLibrary {
      * @param repeating Whether the texture should repeat
      */
   public void add(GL3 gl, String name, String filename, boolean repeating) {
-    Texture texture = loadTexture(gl, filename, repeating);
-    textures.put(name, texture);
+    if (keys.containsKey(name)) return;
+    String key = filename + (repeating ? "/repeat" : "/clamp");
+    keys.put(name, key);
+    Shared texture = shared.get(key);
+    if (texture == null) {
+      texture = new Shared(key, filename, repeating);
+      texture.texture = newPlaceholder(gl, repeating);
+      shared.put(key, texture);
+      entries.add(texture);
+      residents.put(texture.texture, texture);
+    }
+  }
+
+    /**
+     * Hash the content of an image file. Textures with the same hash and wrap mode, which is a
+     * parameter of the GL texture, share one image, and are cached on disk by the hash.
+     * Runs on a decoder thread.
+     * @param filename The filename of the image
+     * @return The SHA-256 hash of the file in hex, or null if it could not be read
+     */
+  private static String contentHash(String filename) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(digest.digest(Files.readAllBytes(new File(filename).toPath())));
+    } catch (IOException | NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+
+    /**
+     * Start loading every texture added so far, as if each had been bound, so that their files
+     * are decoded in parallel before the scene needs them. A prefetched texture that has not been
+     * bound when its image is ready is only uploaded if it fits in the budget without evicting
+     * anything; otherwise it is dropped, and loads on its first bind.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     */
+  public void prefetch() {
+    for (int i = 0; i < entries.size(); i++) {
+      Shared texture = entries.get(i);
+      if (!texture.resident) texture.requested = !texture.failed;
+    }
   }
 
     /**
-     * Get a texture from the library.
+     * Get a texture from the library. Its image may not be loaded yet.
      * @param name The name of the texture
-     * @return The texture
+     * @return The texture, or null if it has not been added
      */
   public Texture get(String name) {
-    return textures.get(name);
+    String key = keys.get(name);
+    return key == null ? null : shared.get(key).texture;
+  }
+
+    /**
+     * Note that a texture is being bound, so that it is loaded if it is not resident and is not
+     * evicted soon. Called by GLStateCache for every texture it is asked to bind.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     * @param texture The texture, which need not come from a library
+     * @return The GL name to bind, which is another texture's if their files hold the same image
+     */
+  static int use(Texture texture) {
+    Shared entry = residents.get(texture);
+    if (entry == null) return texture.getTextureObject();
+    entry.use();
+    return entry.texture.getTextureObject();
+  }
+
+    /**
+     * Get the GL name a texture is bound with, without noting that it is used.
+     * @param texture The texture, which need not come from a library
+     * @return The GL name, which is another texture's if their files hold the same image
+     */
+  static int nameOf(Texture texture) {
+    Shared entry = residents.get(texture);
+    return (entry == null ? texture : entry.texture).getTextureObject();
+  }
+
+    /**
+     * Start a frame: upload the textures that have been bound and decoded, loading new ones
+     * first if needed, and evict the least recently bound while over budget. Textures bound in
+     * the last frame are never evicted, so the budget is exceeded if they do not fit in it.
+     * Must be called on the GL thread, before anything is drawn.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     * @param gl GL3
+     */
+  public void update(GL3 gl) {
+    frame++;
+    for (Decoded next = poll(decoded); next != null; next = poll(decoded)) {
+      Shared texture = shared.get(next.key);
+      if (texture == null || texture.pending == null) continue;  // destroyed since
+      texture.pending = null;
+      if (next.decoded) {
+        texture.ready = next;
+      } else if (next.hash == null) {
+        System.out.println("Error loading texture " + texture.filename);
+        texture.failed = true;
+        texture.requested = false;
+      } else if (!alias(gl, texture, next.hash)) {
+        texture.hash = next.hash;  // decoded below, as the first texture with this content
+      }
+    }
+    for (int i = 0; i < entries.size(); i++) {
+      Shared texture = entries.get(i);
+      if (!texture.requested || texture.resident) continue;
+      if (placeholders) {
+        texture.requested = false;
+        makeResident(gl, texture, PLACEHOLDER_BYTES, 1);
+      } else if (texture.ready != null) {
+        upload(gl, texture);
+      } else if (texture.pending == null) {
+        Decoded image = new Decoded(texture.key, texture.hash, texture.filename, 0);
+        if (texture.hash == null) {
+          texture.pending = decoded.submit(() -> hash(image));  // to find a texture it can share first
+        } else {
+          GLProfile profile = gl.getGLProfile();
+          texture.pending = decoded.submit(() -> decode(profile, image, true));
+        }
+      }
+    }
+    evict(gl, budget);
+  }
+
+    /**
+     * Claim the content of a texture's newly hashed file, or if another texture with the same
+     * wrap mode has already claimed it, make this one an alias of it: its names and binds go to
+     * the other texture, and its own GL texture is destroyed, so the file is never decoded.
+     * @param gl GL3
+     * @param texture The texture, not yet resident
+     * @param hash The hash of its file
+     * @return Whether the texture was made an alias
+     */
+  private boolean alias(GL3 gl, Shared texture, String hash) {
+    Shared owner = contents.putIfAbsent(hash + (texture.repeating ? "/repeat" : "/clamp"), texture);
+    if (owner == null) return false;  // the first texture with this content
+    if (texture.requested && !owner.resident) owner.requested = !owner.failed;
+    owner.lastUse = Math.max(owner.lastUse, texture.lastUse);
+
+    if (owner.aliases == null) owner.aliases = new ArrayList<>();
+    owner.aliases.add(texture.texture);
+    residents.put(texture.texture, owner);
+    shared.put(texture.key, owner);  // later gets of its names return the other texture
+    entries.remove(texture);
+    texture.texture.destroy(gl);
+    return true;
+  }
+
+    /**
+     * Set the GPU memory budget. Textures are evicted at the next update if it is exceeded.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     * @param bytes The budget in bytes, or 0 for no limit
+     */
+  public void setBudget(long bytes) {
+    budget = bytes > 0 ? bytes : UNLIMITED;
+  }
+
+    /**
+     * Get the GPU memory budget.
+     * @return The budget in bytes, or 0 if there is no limit
+     */
+  public long getBudget() {
+    return budget == UNLIMITED ? 0 : budget;
+  }
+
+    /**
+     * Get the estimated GPU memory of the resident textures.
+     * @return The resident bytes
+     */
+  public long getResidentBytes() {
+    return residentBytes;
+  }
+
+    /**
+     * Get the number of binds of a texture whose image was resident.
+     * @return The number of hits
+     */
+  public long getHits() {
+    return hits;
+  }
+
+    /**
+     * Get the number of binds of a texture whose image was not resident, so the placeholder
+     * was drawn instead.
+     * @return The number of misses
+     */
+  public long getMisses() {
+    return misses;
+  }
+
+    /**
+     * Get the number of times a texture has been evicted to fit in the budget.
+     * @return The number of evictions
+     */
+  public long getEvictions() {
+    return evictions;
+  }
+
+    /**
+     * Describe the residency of the textures, for display.
+     * @return A line with the resident memory, budget and counters
+     */
+  public String formatResidency() {
+    return String.format(Locale.ROOT, "textures %.1f/%s MB  hits %d  misses %d  evictions %d",
+            residentBytes / (double) BYTES_PER_MEGABYTE,
+            budget == UNLIMITED ? "-" : Long.toString(budget / BYTES_PER_MEGABYTE), hits, misses, evictions);
   }
 
     /**
-     * Load a texture from the given filename.
+     * Destroy a shared texture, and cancel its decode if it has not been uploaded.
+     * @param gl GL3
+     * @param texture The texture
+     */
+  private void release(GL3 gl, Shared texture) {
+    if (texture.aliases != null) {
+      for (int i = 0; i < texture.aliases.size(); i++) residents.remove(texture.aliases.get(i));
+    }
+    if (texture.pending != null) texture.pending.cancel(false);
+    if (texture.ready != null && texture.ready.data != null) texture.ready.data.flush();
+    if (texture.resident) residentBytes -= texture.bytes;
+    residents.remove(texture.texture);
+    TextureUploader.cancel(texture.texture.getTextureObject());
+    texture.texture.destroy(gl);
+  }
+
+    /**
+     * Wait for the next decode to finish.
+     * @param service The completion service the decodes were submitted to
+     * @return The decoded image, or null if interrupted
+     */
+  private static Decoded take(CompletionService<Decoded> service) {
+    while (true) {
+      try {
+        return service.take().get();
+      } catch (CancellationException e) {
+        // the library was destroyed before it was uploaded
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Texture decode failed", e.getCause());  // decode catches its own errors
+      }
+    }
+  }
+
+    /**
+     * Get the next decode that has finished, without waiting.
+     * @param service The completion service the decodes were submitted to
+     * @return The decoded image, or null if none has finished
+     */
+  private static Decoded poll(CompletionService<Decoded> service) {
+    for (Future<Decoded> next = service.poll(); next != null; next = service.poll()) {
+      try {
+        return next.get();
+      } catch (CancellationException e) {
+        // the library was destroyed before it was uploaded
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Texture decode failed", e.getCause());  // decode catches its own errors
+      }
+    }
+    return null;
+  }
+
+    /**
+     * Hash the file of an image, without decoding it. Runs on a decoder thread.
+     * @param image The image to hash
+     * @return The image, with the hash set if the file could be read
+     */
+  private static Decoded hash(Decoded image) {
+    image.hash = contentHash(image.filename);
+    return image;
+  }
+
+    /**
+     * Load an image from the texture cache, or decode the file, building its mipmaps and adding
+     * it to the cache if its format allows. Runs on a decoder thread.
+     * @param profile The GL profile to decode for
+     * @param image The image to decode into
+     * @param mipmap Whether the texture will be mipmapped
+     * @return The image, with levels or data set if loading succeeded
+     */
+  private static Decoded decode(GLProfile profile, Decoded image, boolean mipmap) {
+    JfrEvents.TextureLoadEvent event = new JfrEvents.TextureLoadEvent();
+    event.begin();
+    if (image.hash == null) image.hash = contentHash(image.filename);
+    if (image.hash != null) image.levels = TextureCache.load(image.hash, mipmap);
+    event.cached = image.levels != null;
+    if (image.levels == null) {
+      try {
+        image.data = TextureIO.newTextureData(profile, new File(image.filename), mipmap, null);
+      } catch (Exception e) {
+        image.data = null;
+      }
+      if (image.data != null && image.hash != null && TextureCache.isEnabled()) {
+        image.levels = TextureCache.build(image.data, mipmap);
+        if (image.levels != null) {
+          TextureCache.store(image.hash, image.levels);
+          image.data.flush();
+          image.data = null;
+        }
+      }
+    }
+    event.file = image.filename;
+    event.loaded = image.levels != null || image.data != null;
+    event.commit();
+    image.decoded = true;
+    return image;
+  }
+
+    /**
+     * Upload the decoded image of a texture, evicting others first if it would not fit in the
+     * budget.
      * Modified by Ethan Watts (eawatts1@sheffield.ac.uk)
      * @param gl GL3
-     * @param filename The filename of the texture
-     * @param repeating Whether the texture should repeat
-     * @return The texture
+     * @param texture The texture, with its image decoded
      */
-  private static Texture loadTexture(GL3 gl, String filename, boolean repeating) {
-    Texture t = null;
+  private void upload(GL3 gl, Shared texture) {
+    Decoded image = texture.ready;
+    texture.ready = null;
+    texture.requested = false;
+    if (image.levels == null && image.data == null) {
+      System.out.println("Error loading texture " + texture.filename);
+      texture.failed = true;
+      return;
+    }
+    TextureCache.Levels levels = image.levels;
+    TextureData data = image.data;
+    long bytes = levels != null ? levelBytes(levels) : data.getEstimatedMemorySize() * 4L / 3;  // mipmaps add a third
+    if (texture.lastUse < 0 && bytes > budget - residentBytes) {
+      if (data != null) data.flush();  // prefetched but not yet bound, and does not fit
+      return;
+    }
+    evict(gl, budget - bytes);
+
+    FrameProfiler.begin(PROFILE_SCOPE);
+    Texture t = texture.texture;
     try {
-      File f = new File(filename);
-      t = TextureIO.newTexture(f, true);
-      t.bind(gl);
-      t.setTexParameteri(gl, GL3.GL_TEXTURE_WRAP_S, repeating ? GL3.GL_REPEAT : GL3.GL_CLAMP_TO_EDGE);
-      t.setTexParameteri(gl, GL3.GL_TEXTURE_WRAP_T, repeating ? GL3.GL_REPEAT : GL3.GL_CLAMP_TO_EDGE);
-      t.setTexParameteri(gl, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR_MIPMAP_LINEAR);
-      t.setTexParameteri(gl, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
-      gl.glGenerateMipmap(GL3.GL_TEXTURE_2D);
+      GLStateCache.bindTexture(gl, 0, GL3.GL_TEXTURE_2D, t.getTextureObject());
+      if (levels != null) {
+        streamLevels(gl, t.getTextureObject(), levels);  // every mip level is in the cache
+        makeResident(gl, texture, bytes, levels.getLevelCount());
+      } else {
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAX_LEVEL, DEFAULT_MAX_LEVEL);
+        t.updateImage(gl, data);
+        GLStateCache.invalidate();  // Texture binds the texture without going through the cache
+        GLStateCache.bindTexture(gl, 0, GL3.GL_TEXTURE_2D, t.getTextureObject());
+        gl.glGenerateMipmap(GL3.GL_TEXTURE_2D);
+        makeResident(gl, texture, bytes, fullLevelCount(data.getWidth(), data.getHeight()));
+      }
+      setParameters(gl, texture.repeating);  // updateImage may have changed them
     } catch (Exception e) {
-      System.out.println("Error loading texture " + filename);
+      System.out.println("Error loading texture " + texture.filename);
+      texture.failed = true;
+    }
+    if (data != null) data.flush();  // the pixels are on the GPU now
+    FrameProfiler.end(PROFILE_SCOPE);
+  }
+
+    /**
+     * Record that a texture's image has been uploaded.
+     * @param gl GL3
+     * @param texture The texture, bound to unit 0 if it has more than one level
+     * @param bytes The estimated GPU memory of the image
+     * @param levelCount The number of mip levels
+     */
+  private void makeResident(GL3 gl, Shared texture, long bytes, int levelCount) {
+    if (levelCount > 1) {
+      gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAX_LEVEL, levelCount - 1);  // the placeholder set 0
+    }
+    texture.resident = true;
+    texture.bytes = bytes;
+    texture.levelCount = levelCount;
+    residentBytes += bytes;
+  }
+
+    /**
+     * Evict the least recently bound textures, except those bound in the last frame, until the
+     * resident textures fit in the given number of bytes.
+     * @param gl GL3
+     * @param limit The bytes to fit in
+     */
+  private void evict(GL3 gl, long limit) {
+    while (residentBytes > limit) {
+      Shared oldest = null;
+      for (int i = 0; i < entries.size(); i++) {
+        Shared texture = entries.get(i);
+        if (texture.resident && texture.lastUse < frame - 1
+                && (oldest == null || texture.lastUse < oldest.lastUse)) {
+          oldest = texture;
+        }
+      }
+      if (oldest == null) return;  // everything resident is in use
+      TextureUploader.cancel(oldest.texture.getTextureObject());
+      GLStateCache.bindTexture(gl, 0, GL3.GL_TEXTURE_2D, oldest.texture.getTextureObject());
+      setPlaceholderImage(gl, oldest.levelCount);
+      oldest.resident = false;
+      residentBytes -= oldest.bytes;
+      oldest.bytes = 0;
+      evictions++;
+    }
+  }
+
+    /**
+     * Create a texture holding the placeholder image.
+     * @param gl GL3
+     * @param repeating Whether the texture should repeat
+     * @return The texture, bound to unit 0
+     */
+  private static Texture newPlaceholder(GL3 gl, boolean repeating) {
+    int[] textureID = new int[1];
+    gl.glGenTextures(1, textureID, 0);
+    GLStateCache.bindTexture(gl, 0, GL3.GL_TEXTURE_2D, textureID[0]);
+    setPlaceholderImage(gl, 1);
+    setParameters(gl, repeating);
+    return new Texture(textureID[0], GL3.GL_TEXTURE_2D, 1, 1, 1, 1, false);
+  }
+
+    /**
+     * Replace the image of the bound texture with the 1x1 placeholder, freeing its mip levels.
+     * @param gl GL3
+     * @param levelCount The number of mip levels the texture has
+     */
+  private static void setPlaceholderImage(GL3 gl, int levelCount) {
+    gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, GL3.GL_RGBA, 1, 1, 0, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, PLACEHOLDER_TEXEL);
+    for (int i = 1; i < levelCount; i++) {
+      gl.glTexImage2D(GL3.GL_TEXTURE_2D, i, GL3.GL_RGBA, 0, 0, 0, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, null);
+    }
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_BASE_LEVEL, 0);
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAX_LEVEL, 0);
+  }
+
+    /**
+     * Set the wrap and filter parameters of the bound texture.
+     * @param gl GL3
+     * @param repeating Whether the texture should repeat
+     */
+  private static void setParameters(GL3 gl, boolean repeating) {
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_S, repeating ? GL3.GL_REPEAT : GL3.GL_CLAMP_TO_EDGE);
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_T, repeating ? GL3.GL_REPEAT : GL3.GL_CLAMP_TO_EDGE);
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR_MIPMAP_LINEAR);
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
+  }
+
+    /**
+     * Estimate the GPU memory of a cached image, assuming 4 bytes per texel as drivers store
+     * 3-component textures padded.
+     * @param levels The image
+     * @return The bytes of all its levels
+     */
+  private static long levelBytes(TextureCache.Levels levels) {
+    long bytes = 0;
+    for (int i = 0; i < levels.getLevelCount(); i++) {
+      bytes += 4L * levels.getWidth(i) * levels.getHeight(i);
+    }
+    return bytes;
+  }
+
+  private static int fullLevelCount(int width, int height) {
+    return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+  }
+
+    /**
+     * Give the bound texture storage for every level of a cached image, and upload the small
+     * levels at once. The larger levels are queued with TextureUploader, smallest first, with
+     * the texture's base level lowered as each arrives, so that it is never sampled unfilled.
+     * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+     * @param gl GL3
+     * @param texture The texture name
+     * @param levels The image
+     */
+  private static void streamLevels(GL3 gl, int texture, TextureCache.Levels levels) {
+    int count = levels.getLevelCount();
+    int base = count - 1;  // the 1x1 level is always small enough to upload at once
+    while (base > 0 && levels.getData(base - 1).remaining() <= DIRECT_UPLOAD_BYTES) base--;
+    for (int i = 0; i < base; i++) {
+      gl.glTexImage2D(GL3.GL_TEXTURE_2D, i, levels.getInternalFormat(), levels.getWidth(i), levels.getHeight(i),
+              0, levels.getPixelFormat(), levels.getPixelType(), null);  // storage only, filled by TextureUploader
+    }
+    gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);  // cached levels are tightly packed
+    for (int i = base; i < count; i++) {
+      gl.glTexImage2D(GL3.GL_TEXTURE_2D, i, levels.getInternalFormat(), levels.getWidth(i), levels.getHeight(i),
+              0, levels.getPixelFormat(), levels.getPixelType(), levels.getData(i));
+    }
+    gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 4);
+    gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_BASE_LEVEL, base);
+    for (int i = base - 1; i >= 0; i--) {
+      TextureUploader.queue(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_2D, texture, i, levels.getWidth(i), levels.getHeight(i),
+              levels.getPixelFormat(), levels.getPixelType(), levels.getData(i), true);
     }
-    return t;
   }
 
     /**
-     * Load a skybox from the given faces.
+     * Load a skybox from the given faces. The faces are decoded in parallel, but this waits for
+     * them and their uploads, so the skybox is complete when it returns. Other textures' queued
+     * uploads are left for TextureUploader.update.
      * @author Ethan Watts (eawatts1@sheffield.ac.uk)
      * @param gl GL3
      * @param faces The faces of the skybox
      * @return The texture ID
      */
   public static int loadSkybox(GL3 gl, List<String> faces) {
+    // decode every face in parallel, then upload each on this thread as it finishes
+    CompletionService<Decoded> faceService = new ExecutorCompletionService<>(decoder());
+    int submitted = 0;
+    GLProfile profile = gl.getGLProfile();
+    for (int i = 0; i < faces.size() && !placeholders; i++) {
+      String filename = faces.get(i);
+      int index = i;
+      faceService.submit(() -> decode(profile, new Decoded(null, null, filename, index), false));
+      submitted++;
+    }
+
+    FrameProfiler.begin(PROFILE_SCOPE);
     int[] textureID = new int[1];
     gl.glGenTextures(1, textureID, 0);
-    gl.glBindTexture(GL3.GL_TEXTURE_CUBE_MAP, textureID[0]);
+    GLStateCache.bindTexture(gl, 0, GL3.GL_TEXTURE_CUBE_MAP, textureID[0]);
 
-    for (int i = 0; i < faces.size(); i++) {
-      try {
-        File file = new File(faces.get(i));
-        TextureData data = TextureIO.newTextureData(gl.getGLProfile(), file, false, null);
-        if (data != null) {
-          gl.glTexImage2D(GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
-                  0, data.getInternalFormat(), data.getWidth(), data.getHeight(),
-                  0, data.getPixelFormat(), data.getPixelType(), data.getBuffer());
-        } else {
-          System.err.println("Cubemap texture failed to load at path: " + faces.get(i));
-        }
-      } catch (Exception e) {
-        System.err.println("Cubemap texture failed to load at path: " + faces.get(i));
-        e.printStackTrace();
+    for (int i = 0; i < submitted; i++) {
+      Decoded face = take(faceService);
+      if (face == null) break;
+      TextureData data = face.data;
+      if (face.levels != null) {
+        // storage now, texels through the pixel buffers, so the copy does not block this thread
+        TextureCache.Levels levels = face.levels;
+        int target = GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face.face;
+        gl.glTexImage2D(target, 0, levels.getInternalFormat(), levels.getWidth(0), levels.getHeight(0),
+                0, levels.getPixelFormat(), levels.getPixelType(), null);
+        TextureUploader.queue(GL3.GL_TEXTURE_CUBE_MAP, target, textureID[0], 0, levels.getWidth(0),
+                levels.getHeight(0), levels.getPixelFormat(), levels.getPixelType(), levels.getData(0), false);
+      } else if (data != null) {
+        gl.glTexImage2D(GL3.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face.face,
+                0, data.getInternalFormat(), data.getWidth(), data.getHeight(),
+                0, data.getPixelFormat(), data.getPixelType(), data.getBuffer());
+        data.flush();
+      } else {
+        System.err.println("Cubemap texture failed to load at path: " + face.filename);
       }
     }
 
@@ -114,7 +729,9 @@ public class TextureLibrary {
     gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_WRAP_R, GL3.GL_CLAMP_TO_EDGE);
     gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
     gl.glTexParameteri(GL3.GL_TEXTURE_CUBE_MAP, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR);
+    TextureUploader.finish(gl, textureID[0]);  // the skybox is drawn complete from the first frame
 
+    FrameProfiler.end(PROFILE_SCOPE);
     return textureID[0];
   }
 
@@ -123,8 +740,12 @@ public class TextureLibrary {
      * @param gl3 GL3
      */
   public void destroy(GL3 gl3) {
-    for (Texture texture : textures.values()) {
-      texture.destroy(gl3);
+    for (int i = 0; i < entries.size(); i++) {
+      release(gl3, entries.get(i));  // once per GL texture, however many names share it
     }
+    entries.clear();
+    shared.clear();
+    contents.clear();
+    keys.clear();
   }
 }
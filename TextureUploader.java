@@ -0,0 +1,265 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * TextureUploader class to stream texel data into textures without stalling the GL thread.
+ * Queued images are copied into a ring of pixel unpack buffers (PBOs), a band of rows at a
+ * time, and each band is uploaded from its buffer with glTexSubImage2D, so the driver copies
+ * the texels asynchronously instead of before glTexImage2D returns. No more than the frame
+ * budget is sent in each update, so a large image is spread over several frames. A fence marks
+ * when the GPU has finished with each buffer, and a buffer is not reused before that.
+ * The texture must already have storage for the images, e.g. from glTexImage2D with null data.
+ * The budget is 8 MB a frame; -Dspacecraft.uploadBudget=<megabytes> changes it.
+ * @author Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class TextureUploader {
+    private static final int SLOT_COUNT = 3;
+    private static final int SLOT_BYTES = 4 * 1024 * 1024;
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+    private static final long WAIT_NANOS = 1_000_000_000L;  // longest wait for a buffer in finish
+    private static final int MAP_ACCESS = GL.GL_MAP_WRITE_BIT | GL.GL_MAP_INVALIDATE_BUFFER_BIT
+            | GL.GL_MAP_UNSYNCHRONIZED_BIT;  // the fence already says the GPU is done with the buffer
+
+    private static final ArrayDeque<Upload> queue = new ArrayDeque<>();
+    private static int[] buffers;  // created on first use
+    private static final long[] fences = new long[SLOT_COUNT];
+    private static int nextSlot;
+    private static long frameBudget = Long.getLong("spacecraft.uploadBudget", 8) * BYTES_PER_MEGABYTE;
+
+    /**
+     * One image still to be uploaded, tightly packed.
+     */
+    private static final class Upload {
+        private final int bindTarget;  // e.g. GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP
+        private final int imageTarget;  // the same, or the cube map face
+        private final int texture;
+        private final int level;
+        private final int width;
+        private final int height;
+        private final int pixelFormat;
+        private final int pixelType;
+        private final int rowBytes;
+        private final ByteBuffer texels;
+        private final boolean setBaseLevel;
+        private int nextRow;
+
+        private Upload(int bindTarget, int imageTarget, int texture, int level, int width, int height,
+                       int pixelFormat, int pixelType, int rowBytes, ByteBuffer texels, boolean setBaseLevel) {
+            this.bindTarget = bindTarget;
+            this.imageTarget = imageTarget;
+            this.texture = texture;
+            this.level = level;
+            this.width = width;
+            this.height = height;
+            this.pixelFormat = pixelFormat;
+            this.pixelType = pixelType;
+            this.rowBytes = rowBytes;
+            this.texels = texels;
+            this.setBaseLevel = setBaseLevel;
+        }
+    }
+
+    private TextureUploader() {}
+
+    /**
+     * Queue an image to be uploaded. Images are uploaded in the order they are queued.
+     * An empty image, a pixel format or type that is not supported, or too few texels for the
+     * size is reported as an error and not queued.
+     * @param bindTarget The target the texture is bound to, e.g. GL_TEXTURE_2D
+     * @param imageTarget The target of the image: the same, or a cube map face
+     * @param texture The texture name
+     * @param level The mip level
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param pixelFormat The pixel format: GL_RED, GL_RGB, GL_BGR, GL_RGBA or GL_BGRA
+     * @param pixelType The pixel type, e.g. GL_UNSIGNED_BYTE; packed types are not supported
+     * @param texels The texels, tightly packed, from the buffer's position; not copied, so they
+     *               must not change until uploaded
+     * @param setBaseLevel Whether to make the level the texture's base level once it is
+     *                     uploaded, so that mip levels queued smallest first are used as they arrive
+     */
+    public static void queue(int bindTarget, int imageTarget, int texture, int level, int width, int height,
+                             int pixelFormat, int pixelType, ByteBuffer texels, boolean setBaseLevel) {
+        long rowBytes = (long) width * TextureCache.components(pixelFormat) * typeBytes(pixelType);
+        if (rowBytes <= 0 || height <= 0 || rowBytes > Integer.MAX_VALUE || texels.remaining() < rowBytes * height) {
+            System.err.println("[error] Not uploading a " + width + "x" + height + " image of texture " + texture
+                    + " with " + texels.remaining() + " bytes of texels, format 0x" + Integer.toHexString(pixelFormat)
+                    + " and type 0x" + Integer.toHexString(pixelType));
+            return;
+        }
+        queue.addLast(new Upload(bindTarget, imageTarget, texture, level, width, height,
+                pixelFormat, pixelType, (int) rowBytes, texels.slice(), setBaseLevel));
+    }
+
+    /**
+     * Get the size of one component of a pixel type.
+     * @param pixelType The pixel type
+     * @return The bytes per component, or 0 if the type is packed or not supported
+     */
+    private static int typeBytes(int pixelType) {
+        switch (pixelType) {
+            case GL.GL_UNSIGNED_BYTE: case GL.GL_BYTE: return 1;
+            case GL.GL_UNSIGNED_SHORT: case GL.GL_SHORT: return 2;
+            case GL.GL_UNSIGNED_INT: case GL3.GL_INT: case GL.GL_FLOAT: return 4;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Send the next part of the queued images, up to the frame budget. Call once a frame.
+     * @param gl GL3
+     */
+    public static void update(GL3 gl) {
+        stream(gl, frameBudget, false);
+    }
+
+    /**
+     * Send every queued image of one texture, waiting for buffers if needed, e.g. when the texture
+     * is needed before the next frame is drawn. Its images are moved ahead of the others, which
+     * are left for later updates.
+     * @param gl GL3
+     * @param texture The texture name
+     */
+    public static void finish(GL3 gl, int texture) {
+        ArrayDeque<Upload> own = new ArrayDeque<>();
+        long bytes = 0;
+        for (Iterator<Upload> it = queue.iterator(); it.hasNext(); ) {
+            Upload upload = it.next();
+            if (upload.texture != texture) continue;
+            it.remove();
+            own.addLast(upload);
+            bytes += (long) (upload.height - upload.nextRow) * upload.rowBytes;
+        }
+        for (Iterator<Upload> it = own.descendingIterator(); it.hasNext(); ) queue.addFirst(it.next());
+        while (bytes > 0) {
+            long sent = stream(gl, bytes, true);  // stops at the end of the texture's images
+            if (sent == 0) {
+                System.err.println("[error] Timed out waiting for a pixel buffer, texture " + texture + " incomplete");
+                return;
+            }
+            bytes -= sent;
+        }
+    }
+
+    /**
+     * Forget the queued images of a texture, e.g. because it is being evicted or deleted.
+     * @param texture The texture name
+     */
+    public static void cancel(int texture) {
+        for (Iterator<Upload> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().texture == texture) it.remove();
+        }
+    }
+
+    /**
+     * Set the bytes sent in each update.
+     * @param bytes The budget, at least one row is always sent
+     */
+    public static void setFrameBudget(long bytes) {
+        frameBudget = bytes;
+    }
+
+    /**
+     * Delete the buffers and fences, and forget the queued images.
+     * @param gl GL3
+     */
+    public static void dispose(GL3 gl) {
+        queue.clear();
+        for (int i=0; i<SLOT_COUNT; i++) {
+            if (fences[i] != 0) gl.glDeleteSync(fences[i]);
+            fences[i] = 0;
+        }
+        if (buffers != null) gl.glDeleteBuffers(SLOT_COUNT, buffers, 0);
+        buffers = null;
+        nextSlot = 0;
+    }
+
+    /**
+     * Upload queued images in bands of rows through the buffer ring.
+     * @param gl GL3
+     * @param budget The most bytes to send, though at least one row is sent if a buffer is free
+     * @param wait Whether to wait for the GPU to finish with a buffer, rather than stop
+     * @return The bytes sent
+     */
+    private static long stream(GL3 gl, long budget, boolean wait) {
+        if (queue.isEmpty()) return 0;
+        if (buffers == null) createBuffers(gl);
+        long sent = 0;
+        boolean bound = false;
+        while (!queue.isEmpty() && sent < budget) {
+            Upload upload = queue.peekFirst();
+            if (!acquire(gl, nextSlot, wait)) break;  // the ring is full until the GPU catches up
+
+            int rowsLeft = upload.height - upload.nextRow;
+            long rowsInBudget = (budget - sent) / upload.rowBytes;
+            int rows = (int) Math.max(1, Math.min(rowsLeft, Math.min(SLOT_BYTES / upload.rowBytes, rowsInBudget)));
+            int bytes = rows * upload.rowBytes;
+            int offset = upload.nextRow * upload.rowBytes;
+
+            GLStateCache.bindTexture(gl, 0, upload.bindTarget, upload.texture);
+            gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+            if (bytes > SLOT_BYTES) {
+                // a single row larger than a buffer, which no texture here has: upload it directly
+                if (bound) gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+                bound = false;
+                gl.glTexSubImage2D(upload.imageTarget, upload.level, 0, upload.nextRow, upload.width, rows,
+                        upload.pixelFormat, upload.pixelType, upload.texels.slice(offset, bytes));
+            } else {
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, buffers[nextSlot]);
+                bound = true;
+                ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_PIXEL_UNPACK_BUFFER, 0, bytes, MAP_ACCESS);
+                if (mapped == null) {
+                    System.err.println("[error] Could not map a pixel buffer, texture uploads stopped");
+                    queue.clear();
+                    break;
+                }
+                mapped.put(0, upload.texels, offset, bytes);
+                gl.glUnmapBuffer(GL3.GL_PIXEL_UNPACK_BUFFER);
+                gl.glTexSubImage2D(upload.imageTarget, upload.level, 0, upload.nextRow, upload.width, rows,
+                        upload.pixelFormat, upload.pixelType, 0L);  // from the bound buffer
+                fences[nextSlot] = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                nextSlot = (nextSlot + 1) % SLOT_COUNT;
+            }
+            gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+
+            upload.nextRow += rows;
+            sent += bytes;
+            if (upload.nextRow == upload.height) {
+                queue.removeFirst();
+                if (upload.setBaseLevel) gl.glTexParameteri(upload.bindTarget, GL3.GL_TEXTURE_BASE_LEVEL, upload.level);
+            }
+        }
+        if (bound) gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);  // later glTexImage2D calls read client memory
+        return sent;
+    }
+
+    /**
+     * Check that the GPU has finished with a buffer, so it can be written again.
+     * @param gl GL3
+     * @param slot The buffer
+     * @param wait Whether to wait for it if not
+     * @return Whether the buffer is free
+     */
+    private static boolean acquire(GL3 gl, int slot, boolean wait) {
+        if (fences[slot] == 0) return true;
+        int status = gl.glClientWaitSync(fences[slot], wait ? GL3.GL_SYNC_FLUSH_COMMANDS_BIT : 0, wait ? WAIT_NANOS : 0);
+        if (status != GL3.GL_ALREADY_SIGNALED && status != GL3.GL_CONDITION_SATISFIED) return false;
+        gl.glDeleteSync(fences[slot]);
+        fences[slot] = 0;
+        return true;
+    }
+
+    private static void createBuffers(GL3 gl) {
+        buffers = new int[SLOT_COUNT];
+        gl.glGenBuffers(SLOT_COUNT, buffers, 0);
+        for (int buffer : buffers) {
+            gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, buffer);
+            gl.glBufferData(GL3.GL_PIXEL_UNPACK_BUFFER, SLOT_BYTES, null, GL3.GL_STREAM_DRAW);
+        }
+        gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+}
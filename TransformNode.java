@@ -6,7 +6,8 @@ import gmaths.Mat4;
  */
 public class TransformNode extends SGNode {
 
-  private Mat4 transform;
+  private final Mat4 transform;
+  private final Mat4 childTransform = new Mat4(1);  // worldTransform * transform, passed to the children
 
   /**
    * Create a new transform node.
@@ -19,19 +20,40 @@ public class TransformNode extends SGNode {
   }
 
   /**
-   * Get the transformation matrix of the node.
+   * Set the transformation matrix of the node. The change is applied by the next update.
    * @param m The transformation matrix
    */
   public void setTransform(Mat4 m) {
-    transform = new Mat4(m);
+    transform.set(m);
+    markDirty();
   }
-  
-  protected void update(Mat4 t) {
-    worldTransform = t;
-    t = Mat4.multiply(worldTransform, transform);
-      for (SGNode child : children) {
-          child.update(t);
-      }
+
+  /**
+   * Recompute the transform passed to the children.
+   */
+  @Override
+  protected void worldTransformChanged() {
+    Mat4.mulInto(worldTransform, transform, childTransform);
+  }
+
+  /**
+   * Get the transform passed on to the children of this node.
+   * @return The world transform multiplied by this node's transform
+   */
+  @Override
+  protected Mat4 getChildTransform() {
+    return childTransform;
+  }
+
+  @Override
+  Mat4 getLocalTransform() {
+    return transform;
+  }
+
+  @Override
+  void setCompiledTransform(float[] packed, int offset, int childOffset) {
+    worldTransform.set(packed, offset);
+    childTransform.set(packed, childOffset);
   }
 
   /**
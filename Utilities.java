@@ -28,7 +28,8 @@ public class Utilities {
     }
 
     /**
-     * Create a model with the given parameters.
+     * Create a model with the given parameters. Identical geometry shares one mesh through MeshCache.
+     * Lit models also get the instanced variant of their shader, so that copies can be batched.
      * @param gl GL3
      * @param name name of the model
      * @param vertices vertices of the model
@@ -41,8 +42,9 @@ public class Utilities {
      */
     public static Model makeModel(GL3 gl, String name, float[] vertices, int[] indices,
                                   Texture diffuse, Texture specular, Light[] lights, Camera camera) {
-        Mesh mesh = new Mesh(gl, vertices.clone(), indices.clone());
+        Mesh mesh = MeshCache.get(gl, vertices, indices);
         Shader shader;
+        Shader instancedShader = null;
 
         Material material = new Material(
                 new Vec3(0.5f, 0.5f, 0.5f),
@@ -51,27 +53,31 @@ public class Utilities {
                 Material.DEFAULT_SHININESS);
 
         if (name.equals("light")) {
-            shader = new Shader(gl, "assets/shaders/vs_light_01.txt",
+            shader = ShaderLibrary.get(gl, "assets/shaders/vs_light_01.txt",
                     "assets/shaders/fs_light_01.txt");
         } else {
             shader = getShader(gl, diffuse, specular);
+            instancedShader = ShaderLibrary.get(gl, shader.getVertexPath(), shader.getFragmentPath(), "INSTANCED");
         }
 
         Mat4 modelMatrix = Mat4.multiply(
                 Mat4Transform.scale(1, 1, 1),
                 Mat4Transform.translate(0,0.5f, 0));
 
+        Model model;
         if (diffuse == null && specular == null) {
-            return new Model(name, mesh, modelMatrix, shader, material, lights, camera);
+            model = new Model(name, mesh, modelMatrix, shader, material, lights, camera);
         } else if (diffuse != null && specular == null) {
-            return new Model(name, mesh, modelMatrix, shader, material, lights, camera, diffuse);
+            model = new Model(name, mesh, modelMatrix, shader, material, lights, camera, diffuse);
+        } else {
+            model = new Model(name, mesh, modelMatrix, shader, material, lights, camera, diffuse, specular);
         }
-
-        return new Model(name, mesh, modelMatrix, shader, material, lights, camera, diffuse, specular);
+        model.setInstancedShader(instancedShader);
+        return model;
     }
 
     /**
-     * Get the shader for the model. Fragment shader is based on the number of textures.
+     * Get the shared shader for the model. Fragment shader is based on the number of textures.
      * @param gl GL3
      * @param diffuse diffuse texture
      * @param specular specular texture
@@ -88,6 +94,6 @@ public class Utilities {
             fragmentShader = "assets/shaders/fs_standard_m_2t.txt";
         }
 
-        return new Shader(gl, "assets/shaders/vs_standard.txt", fragmentShader);
+        return ShaderLibrary.get(gl, "assets/shaders/vs_standard.txt", fragmentShader);
     }
 }
@@ -0,0 +1,128 @@
+package gmaths;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A 3x3 matrix, stored column major to match GLSL's mat3.
+ * Mainly used for normal matrices, which are computed once per node rather than per vertex.
+ *
+ * @author    Ethan Watts (eawatts1@sheffield.ac.uk)
+ */
+public final class Mat3 {   // column major formulation
+
+  private final float[] values = new float[9];  // column major: element (r,c) is stored at c*3+r
+
+  public Mat3() {
+    this(0);
+  }
+
+  public Mat3(float f) {
+    for (int i=0; i<3; ++i) {
+      values[i*3+i] = f;
+    }
+  }
+
+  public Mat3(Mat3 m) {
+    System.arraycopy(m.values, 0, values, 0, 9);
+  }
+
+  public void set(int r, int c, float f) {
+    values[c*3+r] = f;
+  }
+
+  public float get(int r, int c) {
+    return values[c*3+r];
+  }
+
+  /**
+   * Copy the values of the given matrix into this matrix.
+   * @param m The matrix to copy
+   * @return This matrix
+   */
+  public Mat3 set(Mat3 m) {
+    if (m != this) System.arraycopy(m.values, 0, values, 0, 9);
+    return this;
+  }
+
+  /**
+   * Set this matrix to the identity.
+   * @return This matrix
+   */
+  public Mat3 setIdentity() {
+    for (int i=0; i<9; ++i) {
+      values[i] = 0;
+    }
+    values[0] = values[4] = values[8] = 1;
+    return this;
+  }
+
+  /**
+   * Compute the normal matrix of m, i.e. the transpose of the inverse of its upper 3x3 part,
+   * and store it in dest without allocating. This is the cofactor matrix divided by the determinant.
+   * @param m The model (world) matrix
+   * @param dest The matrix to store the normal matrix in
+   * @return False if the upper 3x3 part of m is singular, in which case dest is set to the identity
+   */
+  public static boolean normalMatrixInto(Mat4 m, Mat3 dest) {
+    float a00 = m.get(0,0), a01 = m.get(0,1), a02 = m.get(0,2);
+    float a10 = m.get(1,0), a11 = m.get(1,1), a12 = m.get(1,2);
+    float a20 = m.get(2,0), a21 = m.get(2,1), a22 = m.get(2,2);
+
+    float c00 = a11*a22 - a12*a21;
+    float c01 = a12*a20 - a10*a22;
+    float c02 = a10*a21 - a11*a20;
+    float det = a00*c00 + a01*c01 + a02*c02;
+    if (!(Math.abs(det) > 1e-12f)) {
+      dest.setIdentity();
+      return false;
+    }
+    float invdet = 1.0f / det;
+
+    float[] d = dest.values;
+    d[0] = c00*invdet;                  // (0,0)
+    d[3] = c01*invdet;                  // (0,1)
+    d[6] = c02*invdet;                  // (0,2)
+    d[1] = (a02*a21 - a01*a22)*invdet;  // (1,0)
+    d[4] = (a00*a22 - a02*a20)*invdet;  // (1,1)
+    d[7] = (a01*a20 - a00*a21)*invdet;  // (1,2)
+    d[2] = (a01*a12 - a02*a11)*invdet;  // (2,0)
+    d[5] = (a02*a10 - a00*a12)*invdet;  // (2,1)
+    d[8] = (a00*a11 - a01*a10)*invdet;  // (2,2)
+    return true;
+  }
+
+  /**
+   * Write the matrix in column major order into an array slice.
+   * @param f The array to write to
+   * @param offset The index of the first element to write
+   */
+  public void writeTo(float[] f, int offset) {
+    System.arraycopy(values, 0, f, offset, 9);
+  }
+
+  /**
+   * Write the matrix in column major order into a buffer, ready for glUniformMatrix3fv.
+   * Uses absolute puts, so the buffer position is unchanged.
+   * @param fb The buffer to write to
+   * @param offset The index of the first float to write
+   */
+  public void writeTo(FloatBuffer fb, int offset) {
+    for (int i=0; i<9; ++i) {
+      fb.put(offset+i, values[i]);
+    }
+  }
+
+  public String toString() {
+    String s = "{";
+    for (int i=0; i<3; ++i) {
+      s += (i==0) ? "{" : " {";
+      for (int j=0; j<3; ++j) {
+        s += String.format("%.2f",values[j*3+i]);
+        if (j<2) s += ", ";
+      }
+      s += (i==2) ? "}" : "},\n";
+    }
+    s += "}";
+    return s;
+  }
+}
@@ -1,147 +1,467 @@
 package gmaths;
 
-public class Mat4 {   // row column formulation
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
-  private float[][] values;
+public class Mat4 {   // column major formulation
+
+  private static final float SINGULAR_EPSILON = 1e-12f;
+
+  private final float[] values = new float[16];  // column major, as GLSL expects: element (r,c) is stored at c*4+r
   
   public Mat4() {
     this(0);
   }
   
   public Mat4(float f) {
-    values = new float[4][4];
-    makeZero();
     for (int i=0; i<4; ++i) {
-      values[i][i] = f;
+      values[i*4+i] = f;
     }
   }
   
   public Mat4(Mat4 m) {
-    this.values = new float[4][4];
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        this.values[i][j] = m.values[i][j];
-      }
-    }
+    System.arraycopy(m.values, 0, values, 0, 16);
   }
   
   public void set(int r, int c, float f) {
-    values[r][c] = f;
+    values[c*4+r] = f;
+  }
+
+  /**
+   * Copy the values of the given matrix into this matrix.
+   * @param m The matrix to copy
+   * @return This matrix
+   */
+  public Mat4 set(Mat4 m) {
+    if (m != this) System.arraycopy(m.values, 0, values, 0, 16);
+    return this;
+  }
+
+  /**
+   * Set this matrix to the identity.
+   * @return This matrix
+   */
+  public Mat4 setIdentity() {
+    makeZero();
+    values[0] = values[5] = values[10] = values[15] = 1;
+    return this;
+  }
+
+  /**
+   * Set this matrix to a translation matrix, without allocating.
+   * @param tx The translation amount for x
+   * @param ty The translation amount for y
+   * @param tz The translation amount for z
+   * @return This matrix
+   */
+  public Mat4 setTranslate(float tx, float ty, float tz) {
+    setIdentity();
+    values[12] = tx;
+    values[13] = ty;
+    values[14] = tz;
+    return this;
+  }
+
+  /**
+   * Set this matrix to a scale matrix, without allocating.
+   * @param sx The scale amount for x
+   * @param sy The scale amount for y
+   * @param sz The scale amount for z
+   * @return This matrix
+   */
+  public Mat4 setScale(float sx, float sy, float sz) {
+    makeZero();
+    values[0] = sx;
+    values[5] = sy;
+    values[10] = sz;
+    values[15] = 1;
+    return this;
+  }
+
+  /**
+   * Set this matrix to a rotation around the X axis, without allocating.
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return This matrix
+   */
+  public Mat4 setRotateX(float angle) {
+    double a = Math.toRadians(angle);
+    float c = (float)Math.cos(a);
+    float s = (float)Math.sin(a);
+    setIdentity();
+    values[5] = c;
+    values[9] = -s;
+    values[6] = s;
+    values[10] = c;
+    return this;
+  }
+
+  /**
+   * Set this matrix to a rotation around the Y axis, without allocating.
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return This matrix
+   */
+  public Mat4 setRotateY(float angle) {
+    double a = Math.toRadians(angle);
+    float c = (float)Math.cos(a);
+    float s = (float)Math.sin(a);
+    setIdentity();
+    values[0] = c;
+    values[8] = s;
+    values[2] = -s;
+    values[10] = c;
+    return this;
+  }
+
+  /**
+   * Set this matrix to a rotation around the Z axis, without allocating.
+   * @param angle The amount of rotation in degrees. Positive values indicate anticlockwise rotation.
+   * @return This matrix
+   */
+  public Mat4 setRotateZ(float angle) {
+    double a = Math.toRadians(angle);
+    float c = (float)Math.cos(a);
+    float s = (float)Math.sin(a);
+    setIdentity();
+    values[0] = c;
+    values[4] = -s;
+    values[1] = s;
+    values[5] = c;
+    return this;
   }
   
   private void makeZero() {
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        values[i][j] = 0;
-      }
+    for (int i=0; i<16; ++i) {
+      values[i] = 0;
     }
   }
   
   public void transpose() {
     for (int i=0; i<4; ++i) {
-      for (int j=i; j<4; ++j) {
-        float t = values[i][j];
-        values[i][j] = values[j][i];
-        values[j][i] = t;
+      for (int j=i+1; j<4; ++j) {
+        float t = values[i*4+j];
+        values[i*4+j] = values[j*4+i];
+        values[j*4+i] = t;
       }
     }
   }
     
   public static Mat4 transpose(Mat4 m) {
     Mat4 a = new Mat4(m);
-    for (int i=0; i<4; ++i) {
-      for (int j=i; j<4; ++j) {
-        float t = a.values[i][j];
-        a.values[i][j] = a.values[j][i];
-        a.values[j][i] = t;
-      }
-    }
+    a.transpose();
     return a;
   }
 
   public static Mat4 multiply(Mat4 a, Mat4 b) {
-    Mat4 result = new Mat4();
-    for (int i=0; i<4; ++i) {
-      for (int j=0; j<4; ++j) {
-        for (int k=0; k<4; ++k) {
-          result.values[i][j] += a.values[i][k]*b.values[k][j];
-        }
-      }
+    return mulInto(a, b, new Mat4());
+  }
+
+  /**
+   * Multiply a by b and store the result in dest, without allocating.
+   * dest may be the same object as a or b.
+   * @param a The left hand matrix
+   * @param b The right hand matrix
+   * @param dest The matrix to store a*b in
+   * @return dest
+   */
+  public static Mat4 mulInto(Mat4 a, Mat4 b, Mat4 dest) {
+    mulInto(a.values, 0, b.values, 0, dest.values, 0);
+    return dest;
+  }
+
+  /**
+   * Multiply two column major matrices stored in array slices, e.g. in a packed array of
+   * transforms. Takes the affine path when both are affine. The destination slice may
+   * overlap either source exactly.
+   * @param x The array holding the left hand matrix
+   * @param xo The offset of the left hand matrix
+   * @param y The array holding the right hand matrix
+   * @param yo The offset of the right hand matrix
+   * @param d The array to store the product in
+   * @param dof The offset to store the product at
+   */
+  public static void mulInto(float[] x, int xo, float[] y, int yo, float[] d, int dof) {
+    if (isAffine(x, xo) && isAffine(y, yo)) {
+      mulAffineInto(x, xo, y, yo, d, dof);
+      return;
+    }
+    float a00 = x[xo],    a10 = x[xo+1],  a20 = x[xo+2],  a30 = x[xo+3];
+    float a01 = x[xo+4],  a11 = x[xo+5],  a21 = x[xo+6],  a31 = x[xo+7];
+    float a02 = x[xo+8],  a12 = x[xo+9],  a22 = x[xo+10], a32 = x[xo+11];
+    float a03 = x[xo+12], a13 = x[xo+13], a23 = x[xo+14], a33 = x[xo+15];
+    for (int j=0; j<16; j+=4) {  // column j of the result is a * (column j of b)
+      float b0 = y[yo+j], b1 = y[yo+j+1], b2 = y[yo+j+2], b3 = y[yo+j+3];
+      d[dof+j]   = a00*b0 + a01*b1 + a02*b2 + a03*b3;
+      d[dof+j+1] = a10*b0 + a11*b1 + a12*b2 + a13*b3;
+      d[dof+j+2] = a20*b0 + a21*b1 + a22*b2 + a23*b3;
+      d[dof+j+3] = a30*b0 + a31*b1 + a32*b2 + a33*b3;
     }
-    return result;
   }
 
-  // See https://www.geometrictools.com/Documentation/LaplaceExpansionTheorem.pdf
-  public static Mat4 inverse(Mat4 m) {
-    float s0 = m.values[0][0] * m.values[1][1] - m.values[1][0] * m.values[0][1];
-    float s1 = m.values[0][0] * m.values[1][2] - m.values[1][0] * m.values[0][2];
-    float s2 = m.values[0][0] * m.values[1][3] - m.values[1][0] * m.values[0][3];
-    float s3 = m.values[0][1] * m.values[1][2] - m.values[1][1] * m.values[0][2];
-    float s4 = m.values[0][1] * m.values[1][3] - m.values[1][1] * m.values[0][3];
-    float s5 = m.values[0][2] * m.values[1][3] - m.values[1][2] * m.values[0][3];
-
-    float c5 = m.values[2][2] * m.values[3][3] - m.values[3][2] * m.values[2][3];
-    float c4 = m.values[2][1] * m.values[3][3] - m.values[3][1] * m.values[2][3];
-    float c3 = m.values[2][1] * m.values[3][2] - m.values[3][1] * m.values[2][2];
-    float c2 = m.values[2][0] * m.values[3][3] - m.values[3][0] * m.values[2][3];
-    float c1 = m.values[2][0] * m.values[3][2] - m.values[3][0] * m.values[2][2];
-    float c0 = m.values[2][0] * m.values[3][1] - m.values[3][0] * m.values[2][1];
-
-    // Should check for 0 determinant
-    float invdet = 1.0f / (s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0);
+  /**
+   * Check whether the bottom row is (0,0,0,1), as for every matrix built by Mat4Transform
+   * other than perspective. Affine matrices take the cheaper multiply and inverse paths.
+   * @return True if the matrix is affine
+   */
+  public boolean isAffine() {
+    return isAffine(values, 0);
+  }
 
+  private static boolean isAffine(float[] f, int o) {
+    return f[o+3] == 0 && f[o+7] == 0 && f[o+11] == 0 && f[o+15] == 1;
+  }
+
+  /**
+   * Multiply two affine matrices, treating the bottom rows as (0,0,0,1).
+   * Uses 36 multiplies rather than 64. dest may be the same object as a or b.
+   * @param a The left hand affine matrix
+   * @param b The right hand affine matrix
+   * @param dest The matrix to store a*b in
+   * @return dest
+   */
+  public static Mat4 mulAffineInto(Mat4 a, Mat4 b, Mat4 dest) {
+    mulAffineInto(a.values, 0, b.values, 0, dest.values, 0);
+    return dest;
+  }
+
+  private static void mulAffineInto(float[] x, int xo, float[] y, int yo, float[] d, int dof) {
+    float a00 = x[xo],    a10 = x[xo+1],  a20 = x[xo+2];
+    float a01 = x[xo+4],  a11 = x[xo+5],  a21 = x[xo+6];
+    float a02 = x[xo+8],  a12 = x[xo+9],  a22 = x[xo+10];
+    float a03 = x[xo+12], a13 = x[xo+13], a23 = x[xo+14];
+    for (int j=0; j<12; j+=4) {  // the 3x3 part
+      float b0 = y[yo+j], b1 = y[yo+j+1], b2 = y[yo+j+2];
+      d[dof+j]   = a00*b0 + a01*b1 + a02*b2;
+      d[dof+j+1] = a10*b0 + a11*b1 + a12*b2;
+      d[dof+j+2] = a20*b0 + a21*b1 + a22*b2;
+      d[dof+j+3] = 0;
+    }
+    float b0 = y[yo+12], b1 = y[yo+13], b2 = y[yo+14];  // the translation
+    d[dof+12] = a00*b0 + a01*b1 + a02*b2 + a03;
+    d[dof+13] = a10*b0 + a11*b1 + a12*b2 + a13;
+    d[dof+14] = a20*b0 + a21*b1 + a22*b2 + a23;
+    d[dof+15] = 1;
+  }
+
+  /**
+   * Returns the inverse of m.
+   * @param m The matrix to invert
+   * @return A new matrix holding the inverse
+   * @throws ArithmeticException if m is singular
+   */
+  public static Mat4 inverse(Mat4 m) {
     Mat4 b = new Mat4();
+    if (!invertInto(m, b)) {
+      throw new ArithmeticException("Mat4.inverse: matrix is singular");
+    }
+    return b;
+  }
+
+  /**
+   * Invert m into dest, using the affine path when possible. dest may be m.
+   * @param m The matrix to invert
+   * @param dest The matrix to store the inverse in. Left unchanged if m is singular.
+   * @return False if m is singular
+   */
+  public static boolean invertInto(Mat4 m, Mat4 dest) {
+    return m.isAffine() ? invertAffineInto(m, dest) : invertGeneralInto(m, dest);
+  }
+
+  /**
+   * Invert an affine matrix: the inverse of the 3x3 part, and the translation mapped back through it.
+   * dest may be m.
+   * @param m The affine matrix to invert
+   * @param dest The matrix to store the inverse in. Left unchanged if m is singular.
+   * @return False if m is singular
+   */
+  public static boolean invertAffineInto(Mat4 m, Mat4 dest) {
+    float[] v = m.values;
+    float a00 = v[0], a10 = v[1], a20 = v[2];
+    float a01 = v[4], a11 = v[5], a21 = v[6];
+    float a02 = v[8], a12 = v[9], a22 = v[10];
+    float tx = v[12], ty = v[13], tz = v[14];
+
+    float c00 = a11*a22 - a12*a21;
+    float c01 = a12*a20 - a10*a22;
+    float c02 = a10*a21 - a11*a20;
+    float det = a00*c00 + a01*c01 + a02*c02;
+    if (isSingular(det)) return false;
+    float invdet = 1.0f / det;
+
+    float i00 = c00*invdet, i01 = (a02*a21 - a01*a22)*invdet, i02 = (a01*a12 - a02*a11)*invdet;
+    float i10 = c01*invdet, i11 = (a00*a22 - a02*a20)*invdet, i12 = (a02*a10 - a00*a12)*invdet;
+    float i20 = c02*invdet, i21 = (a01*a20 - a00*a21)*invdet, i22 = (a00*a11 - a01*a10)*invdet;
+
+    float[] d = dest.values;
+    d[0] = i00; d[4] = i01; d[8] = i02;
+    d[1] = i10; d[5] = i11; d[9] = i12;
+    d[2] = i20; d[6] = i21; d[10] = i22;
+    d[12] = -(i00*tx + i01*ty + i02*tz);
+    d[13] = -(i10*tx + i11*ty + i12*tz);
+    d[14] = -(i20*tx + i21*ty + i22*tz);
+    d[3] = d[7] = d[11] = 0;
+    d[15] = 1;
+    return true;
+  }
+
+  /**
+   * Invert a rigid transform (rotation and translation only, no scale): the transposed
+   * rotation, and the translation mapped back through it. The result is wrong for any
+   * other kind of matrix. dest may be m.
+   * @param m The rigid transform to invert
+   * @param dest The matrix to store the inverse in
+   * @return dest
+   */
+  public static Mat4 invertRigidInto(Mat4 m, Mat4 dest) {
+    float[] v = m.values;
+    float r00 = v[0], r10 = v[1], r20 = v[2];
+    float r01 = v[4], r11 = v[5], r21 = v[6];
+    float r02 = v[8], r12 = v[9], r22 = v[10];
+    float tx = v[12], ty = v[13], tz = v[14];
+    float[] d = dest.values;
+    d[0] = r00; d[4] = r10; d[8] = r20;
+    d[1] = r01; d[5] = r11; d[9] = r21;
+    d[2] = r02; d[6] = r12; d[10] = r22;
+    d[12] = -(r00*tx + r10*ty + r20*tz);
+    d[13] = -(r01*tx + r11*ty + r21*tz);
+    d[14] = -(r02*tx + r12*ty + r22*tz);
+    d[3] = d[7] = d[11] = 0;
+    d[15] = 1;
+    return dest;
+  }
+
+  /**
+   * Check whether a determinant is too close to zero to invert safely.
+   * @param det The determinant
+   * @return True if the matrix should be treated as singular
+   */
+  private static boolean isSingular(float det) {
+    return !(Math.abs(det) > SINGULAR_EPSILON);  // also catches NaN
+  }
+
+  // See https://www.geometrictools.com/Documentation/LaplaceExpansionTheorem.pdf
+  private static boolean invertGeneralInto(Mat4 m, Mat4 dest) {
+    float s0 = m.values[0] * m.values[5] - m.values[1] * m.values[4];
+    float s1 = m.values[0] * m.values[9] - m.values[1] * m.values[8];
+    float s2 = m.values[0] * m.values[13] - m.values[1] * m.values[12];
+    float s3 = m.values[4] * m.values[9] - m.values[5] * m.values[8];
+    float s4 = m.values[4] * m.values[13] - m.values[5] * m.values[12];
+    float s5 = m.values[8] * m.values[13] - m.values[9] * m.values[12];
+
+    float c5 = m.values[10] * m.values[15] - m.values[11] * m.values[14];
+    float c4 = m.values[6] * m.values[15] - m.values[7] * m.values[14];
+    float c3 = m.values[6] * m.values[11] - m.values[7] * m.values[10];
+    float c2 = m.values[2] * m.values[15] - m.values[3] * m.values[14];
+    float c1 = m.values[2] * m.values[11] - m.values[3] * m.values[10];
+    float c0 = m.values[2] * m.values[7] - m.values[3] * m.values[6];
+
+    float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+    if (isSingular(det)) return false;
+    float invdet = 1.0f / det;
+
+    Mat4 b = (dest == m) ? new Mat4() : dest;  // the expansion reads m while writing the result
 
-    b.values[0][0] = ( m.values[1][1] * c5 - m.values[1][2] * c4 + m.values[1][3] * c3) * invdet;
-    b.values[0][1] = (-m.values[0][1] * c5 + m.values[0][2] * c4 - m.values[0][3] * c3) * invdet;
-    b.values[0][2] = ( m.values[3][1] * s5 - m.values[3][2] * s4 + m.values[3][3] * s3) * invdet;
-    b.values[0][3] = (-m.values[2][1] * s5 + m.values[2][2] * s4 - m.values[2][3] * s3) * invdet;
+    b.values[0] = ( m.values[5] * c5 - m.values[9] * c4 + m.values[13] * c3) * invdet;
+    b.values[4] = (-m.values[4] * c5 + m.values[8] * c4 - m.values[12] * c3) * invdet;
+    b.values[8] = ( m.values[7] * s5 - m.values[11] * s4 + m.values[15] * s3) * invdet;
+    b.values[12] = (-m.values[6] * s5 + m.values[10] * s4 - m.values[14] * s3) * invdet;
 
-    b.values[1][0] = (-m.values[1][0] * c5 + m.values[1][2] * c2 - m.values[1][3] * c1) * invdet;
-    b.values[1][1] = ( m.values[0][0] * c5 - m.values[0][2] * c2 + m.values[0][3] * c1) * invdet;
-    b.values[1][2] = (-m.values[3][0] * s5 + m.values[3][2] * s2 - m.values[3][3] * s1) * invdet;
-    b.values[1][3] = ( m.values[2][0] * s5 - m.values[2][2] * s2 + m.values[2][3] * s1) * invdet;
+    b.values[1] = (-m.values[1] * c5 + m.values[9] * c2 - m.values[13] * c1) * invdet;
+    b.values[5] = ( m.values[0] * c5 - m.values[8] * c2 + m.values[12] * c1) * invdet;
+    b.values[9] = (-m.values[3] * s5 + m.values[11] * s2 - m.values[15] * s1) * invdet;
+    b.values[13] = ( m.values[2] * s5 - m.values[10] * s2 + m.values[14] * s1) * invdet;
 
-    b.values[2][0] = ( m.values[1][0] * c4 - m.values[1][1] * c2 + m.values[1][3] * c0) * invdet;
-    b.values[2][1] = (-m.values[0][0] * c4 + m.values[0][1] * c2 - m.values[0][3] * c0) * invdet;
-    b.values[2][2] = ( m.values[3][0] * s4 - m.values[3][1] * s2 + m.values[3][3] * s0) * invdet;
-    b.values[2][3] = (-m.values[2][0] * s4 + m.values[2][1] * s2 - m.values[2][3] * s0) * invdet;
+    b.values[2] = ( m.values[1] * c4 - m.values[5] * c2 + m.values[13] * c0) * invdet;
+    b.values[6] = (-m.values[0] * c4 + m.values[4] * c2 - m.values[12] * c0) * invdet;
+    b.values[10] = ( m.values[3] * s4 - m.values[7] * s2 + m.values[15] * s0) * invdet;
+    b.values[14] = (-m.values[2] * s4 + m.values[6] * s2 - m.values[14] * s0) * invdet;
 
-    b.values[3][0] = (-m.values[1][0] * c3 + m.values[1][1] * c1 - m.values[1][2] * c0) * invdet;
-    b.values[3][1] = ( m.values[0][0] * c3 - m.values[0][1] * c1 + m.values[0][2] * c0) * invdet;
-    b.values[3][2] = (-m.values[3][0] * s3 + m.values[3][1] * s1 - m.values[3][2] * s0) * invdet;
-    b.values[3][3] = ( m.values[2][0] * s3 - m.values[2][1] * s1 + m.values[2][2] * s0) * invdet;
+    b.values[3] = (-m.values[1] * c3 + m.values[5] * c1 - m.values[9] * c0) * invdet;
+    b.values[7] = ( m.values[0] * c3 - m.values[4] * c1 + m.values[8] * c0) * invdet;
+    b.values[11] = (-m.values[3] * s3 + m.values[7] * s1 - m.values[11] * s0) * invdet;
+    b.values[15] = ( m.values[2] * s3 - m.values[6] * s1 + m.values[10] * s0) * invdet;
 
-    return b; 
+    dest.set(b);
+    return true;
   }
   
   public float[] toFloatArrayForGLSL() {  // col by row
-    float[] f = new float[16];
-    for (int j=0; j<4; ++j) {
-      for (int i=0; i<4; ++i) {
-        f[j*4+i] = values[i][j];
-      }
-    }
+    return toFloatArrayForGLSL(new float[16]);
+  }
+
+  /**
+   * Write the matrix in column major order into the given array, without allocating.
+   * @param f The array to write to, of at least 16 elements
+   * @return f
+   */
+  public float[] toFloatArrayForGLSL(float[] f) {  // col by row
+    System.arraycopy(values, 0, f, 0, 16);
     return f;
   }
+
+  /**
+   * Write the matrix in column major order into an array slice, without allocating or transposing.
+   * @param f The array to write to
+   * @param offset The index of the first element to write
+   */
+  public void writeTo(float[] f, int offset) {
+    System.arraycopy(values, 0, f, offset, 16);
+  }
+
+  /**
+   * Write the matrix in column major order into a buffer, ready for glUniformMatrix4fv or a
+   * uniform/instance buffer upload. Uses absolute puts, so the buffer position is unchanged.
+   * @param fb The buffer to write to
+   * @param offset The index of the first float to write
+   */
+  public void writeTo(FloatBuffer fb, int offset) {
+    for (int i=0; i<16; ++i) {
+      fb.put(offset+i, values[i]);
+    }
+  }
+
+  /**
+   * Copy 16 column major values from an array slice into this matrix.
+   * @param f The array to read from
+   * @param offset The index of the first element to read
+   * @return This matrix
+   */
+  public Mat4 set(float[] f, int offset) {
+    System.arraycopy(f, offset, values, 0, 16);
+    return this;
+  }
   
   public String asFloatArrayForGLSL() {  // col by row
     String s = "{";
     for (int j=0; j<4; ++j) {
       for (int i=0; i<4; ++i) {
-        s += String.format("%.2f",values[i][j]);
+        s += String.format("%.2f",values[j*4+i]);
         if (!(j==3 && i==3)) s+=",";
       }
     }
     return s;
   }
   
+  /**
+   * Compare the values of two matrices.
+   * @param o The object to compare with
+   * @return True if o is a Mat4 with exactly the same values
+   */
+  @Override
+  public boolean equals(Object o) {
+    return (o instanceof Mat4) && Arrays.equals(values, ((Mat4) o).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+  
   public String toString() {
     String s = "{";
     for (int i=0; i<4; ++i) {
       s += (i==0) ? "{" : " {";
       for (int j=0; j<4; ++j) {
-        s += String.format("%.2f",values[i][j]);  
+        s += String.format("%.2f",values[j*4+i]);  
         if (j<3) s += ", ";
       }
       s += (i==3) ? "}" : "},\n";
@@ -157,7 +477,7 @@ public class Mat4 {   // row column formulation
    * @return The column of the matrix at the given index
    */
   public float[] getColumn(int i) {
-    return new float[]{values[0][i], values[1][i], values[2][i], values[3][i]};
+    return new float[]{values[i*4], values[i*4+1], values[i*4+2], values[i*4+3]};
   }
 
   /**
@@ -168,6 +488,6 @@ public class Mat4 {   // row column formulation
    * @return The value at the given row and column
    */
   public float get(int r, int c) {
-    return values[r][c];
+    return values[c*4+r];
   }
 }
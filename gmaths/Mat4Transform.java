@@ -159,28 +159,43 @@ public final class Mat4Transform  {   // row column formulation
    * @return  The 4x4 viewing matrix, as a Mat4.
    */
    public static Mat4 lookAt(Vec3 from, Vec3 to, Vec3 worldup) {
-    Vec3 front = Vec3.subtract(to, from);
-    front.normalize();
-    Vec3 right = Vec3.crossProduct(front, worldup);
-    right.normalize();
-    Vec3 up = Vec3.crossProduct(right, front);
-    up.normalize();
-    Mat4 view = new Mat4(1);
-    view.set(0, 0, right.x);
-    view.set(0, 1, right.y);
-    view.set(0, 2, right.z);
-    view.set(1, 0, up.x);
-    view.set(1, 1, up.y);
-    view.set(1, 2, up.z);
-    view.set(2, 0, -front.x);
-    view.set(2, 1, -front.y);
-    view.set(2, 2, -front.z);
-    Mat4 cam = new Mat4(1);
-    cam.set(0, 3, -from.x);
-    cam.set(1, 3, -from.y);
-    cam.set(2, 3, -from.z);
-    Mat4 result = Mat4.multiply(view, cam);
-    return result;
+    return lookAtInto(from, to, worldup, new Mat4());
+  }
+
+  /**
+   * Writes the view matrix for a camera at from, looking at to, into dest without allocating.
+   * This gives the same result as lookAt.
+   * 
+   * @param from The camera postion.
+   * @param to The target that the camera is looking at.
+   * @param worldup The up direction for the world. 
+   * @param dest The matrix to store the view matrix in.
+   * @return  dest
+   */
+   public static Mat4 lookAtInto(Vec3 from, Vec3 to, Vec3 worldup, Mat4 dest) {
+    float fx = to.x-from.x, fy = to.y-from.y, fz = to.z-from.z;
+    float mag = (float)Math.sqrt(fx*fx+fy*fy+fz*fz);
+    fx /= mag; fy /= mag; fz /= mag;
+    float rx = fy*worldup.z-fz*worldup.y, ry = fz*worldup.x-fx*worldup.z, rz = fx*worldup.y-fy*worldup.x;
+    mag = (float)Math.sqrt(rx*rx+ry*ry+rz*rz);
+    rx /= mag; ry /= mag; rz /= mag;
+    float ux = ry*fz-rz*fy, uy = rz*fx-rx*fz, uz = rx*fy-ry*fx;
+    mag = (float)Math.sqrt(ux*ux+uy*uy+uz*uz);
+    ux /= mag; uy /= mag; uz /= mag;
+    dest.setIdentity();
+    dest.set(0, 0, rx);
+    dest.set(0, 1, ry);
+    dest.set(0, 2, rz);
+    dest.set(0, 3, -(rx*from.x+ry*from.y+rz*from.z));
+    dest.set(1, 0, ux);
+    dest.set(1, 1, uy);
+    dest.set(1, 2, uz);
+    dest.set(1, 3, -(ux*from.x+uy*from.y+uz*from.z));
+    dest.set(2, 0, -fx);
+    dest.set(2, 1, -fy);
+    dest.set(2, 2, -fz);
+    dest.set(2, 3, fx*from.x+fy*from.y+fz*from.z);
+    return dest;
   }
   
 } // end of class
\ No newline at end of file
@@ -21,6 +21,29 @@ public final class Vec3 {
     this.z = v.z;
   }
 
+  /**
+   * Set the components of this vector, without allocating.
+   * @param x x value
+   * @param y y value
+   * @param z z value
+   * @return This vector
+   */
+  public Vec3 set(float x, float y, float z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    return this;
+  }
+
+  /**
+   * Copy the components of v into this vector, without allocating.
+   * @param v The vector to copy
+   * @return This vector
+   */
+  public Vec3 set(Vec3 v) {
+    return set(v.x, v.y, v.z);
+  }
+
   public float length() {
     return magnitude();
   }
@@ -54,6 +77,17 @@ public final class Vec3 {
   public static Vec3 add(Vec3 a, Vec3 b) {
     return new Vec3(a.x+b.x, a.y+b.y, a.z+b.z);
   }
+
+  /**
+   * Store a+b in dest, without allocating. dest may be a or b.
+   * @param a The first vector
+   * @param b The second vector
+   * @param dest The vector to store the result in
+   * @return dest
+   */
+  public static Vec3 addInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.x+b.x, a.y+b.y, a.z+b.z);
+  }
     
   public void subtract(Vec3 v) {
     x -= v.x;
@@ -63,7 +97,18 @@ public final class Vec3 {
   
   public static Vec3 subtract(Vec3 a, Vec3 b) {
     return new Vec3(a.x-b.x, a.y-b.y, a.z-b.z);
-  } 
+  }
+
+  /**
+   * Store a-b in dest, without allocating. dest may be a or b.
+   * @param a The first vector
+   * @param b The second vector
+   * @param dest The vector to store the result in
+   * @return dest
+   */
+  public static Vec3 subtractInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.x-b.x, a.y-b.y, a.z-b.z);
+  }
   
   public float dotProduct(Vec3 v) {
     return dotProduct(this, v);
@@ -86,6 +131,17 @@ public final class Vec3 {
   public static Vec3 crossProduct(Vec3 a, Vec3 b) {
     return new Vec3(a.y*b.z-a.z*b.y, a.z*b.x-a.x*b.z, a.x*b.y-a.y*b.x);
   }
+
+  /**
+   * Store the cross product a x b in dest, without allocating. dest may be a or b.
+   * @param a The first vector
+   * @param b The second vector
+   * @param dest The vector to store the result in
+   * @return dest
+   */
+  public static Vec3 crossInto(Vec3 a, Vec3 b, Vec3 dest) {
+    return dest.set(a.y*b.z-a.z*b.y, a.z*b.x-a.x*b.z, a.x*b.y-a.y*b.x);
+  }
  
   public String toString() {
     return "("+x+","+y+","+z+")";